@@ -0,0 +1,130 @@
+package com.hjortur.soundboard.adapters;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.GridView;
+import android.widget.TextView;
+
+import com.hjortur.soundboard.R;
+import com.hjortur.soundboard.catalog.SoundItem;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the GridAdapter reuses the views it's handed back. The views are bound on the UI
+ * thread and the results are checked on the test thread, where a failure doesn't crash the app.
+ * Run with "gradlew connectedInstrumentTest"
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class GridAdapterTest extends InstrumentationTestCase {
+    /**
+     * The number of times a view is bound
+     */
+    private static final int BIND_COUNT = 100;
+    /**
+     * How long to wait for the catalog to be read
+     */
+    private static final long LOAD_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The adapter being tested
+     */
+    private GridAdapter adapter;
+    /**
+     * The parent of the views
+     */
+    private ViewGroup parent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        final CountDownLatch loaded = new CountDownLatch(1);
+        // The adapter reads the catalog with an AsyncTask, which has to be started on the UI thread
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter = new GridAdapter(context);
+                parent = new GridView(context);
+                adapter.registerDataSetObserver(new DataSetObserver() {
+                    @Override
+                    public void onChanged() {
+                        if (adapter.getCount() > 0) {
+                            loaded.countDown();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue("The catalog was not read", loaded.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("The test needs at least two sounds", adapter.getCount() >= 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter.release();
+            }
+        });
+        super.tearDown();
+    }
+
+    /**
+     * Binding a recycled view to other items, as scrolling does, must keep its holder and show
+     * the names the catalog items hold instead of new strings
+     */
+    public void testRebindingOtherItemsKeepsHolder() {
+        final View[] views = new View[1];
+        final Object[] holders = new Object[1];
+        final boolean[] reused = {true};
+        final boolean[] sameNames = {true};
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                views[0] = adapter.getView(0, null, parent);
+                holders[0] = views[0].getTag();
+                TextView name = (TextView) views[0].findViewById(R.id.text);
+                for (int i = 0; i < BIND_COUNT; i++) {
+                    int position = i % adapter.getCount();
+                    View view = adapter.getView(position, views[0], parent);
+                    reused[0] &= view == views[0] && view.getTag() == holders[0];
+                    sameNames[0] &= name.getText() == ((SoundItem) adapter.getItem(position)).getName();
+                }
+            }
+        });
+        assertTrue("A recycled view was replaced or given a new holder", reused[0]);
+        assertTrue("A recycled view was given a new string for the name", sameNames[0]);
+    }
+
+    /**
+     * Binding a recycled view to the item it already shows must leave it as it is
+     */
+    public void testRebindingSameItemKeepsView() {
+        final View[] views = new View[1];
+        final Object[] holders = new Object[1];
+        final boolean[] reused = {true};
+        final CharSequence[] names = new CharSequence[2];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                views[0] = adapter.getView(1, null, parent);
+                holders[0] = views[0].getTag();
+                TextView name = (TextView) views[0].findViewById(R.id.text);
+                names[0] = name.getText();
+                for (int i = 0; i < BIND_COUNT; i++) {
+                    View view = adapter.getView(1, views[0], parent);
+                    reused[0] &= view == views[0] && view.getTag() == holders[0];
+                }
+                names[1] = name.getText();
+            }
+        });
+        assertTrue("A recycled view was replaced or given a new holder", reused[0]);
+        assertSame(names[0], names[1]);
+    }
+}
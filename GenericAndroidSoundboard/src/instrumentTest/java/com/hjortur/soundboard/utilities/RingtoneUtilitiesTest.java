@@ -0,0 +1,118 @@
+package com.hjortur.soundboard.utilities;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.test.AndroidTestCase;
+
+import com.hjortur.soundboard.R;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests the export of sounds to the external storage, which is used before Android 10 and as the
+ * fallback when the media store doesn't take the sounds directly.
+ * Run with "gradlew connectedInstrumentTest"
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class RingtoneUtilitiesTest extends AndroidTestCase {
+    /**
+     * The directory the sounds are exported to
+     */
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(Environment.getExternalStorageDirectory(), "GenericAndroidSoundboard/Audio");
+    }
+
+    public void testSaveToStorageWritesResource() throws IOException {
+        Uri uri = RingtoneUtilities.saveToStorage(getContext(), R.raw.cow, "Cow", null);
+        assertNotNull(uri);
+        File file = new File(directory, "cow.mp3");
+        assertTrue("The sound file was not written", file.exists());
+        assertEquals(getResourceChecksum(R.raw.cow), getFileChecksum(file));
+        // Exporting again finds the same entry
+        assertEquals(uri, RingtoneUtilities.saveToStorage(getContext(), R.raw.cow, "Cow", null));
+    }
+
+    public void testSaveToStorageReplacesChangedFile() throws IOException {
+        RingtoneUtilities.saveToStorage(getContext(), R.raw.cow, "Cow", null);
+        File file = new File(directory, "cow.mp3");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[(int) file.length()]);
+        } finally {
+            outputStream.close();
+        }
+        assertNotNull(RingtoneUtilities.saveToStorage(getContext(), R.raw.cow, "Cow", null));
+        assertEquals(getResourceChecksum(R.raw.cow), getFileChecksum(file));
+    }
+
+    public void testSaveAllToStorageWritesEachClipOnce() throws IOException {
+        int[] soundClipIds = {R.raw.cow, R.raw.bull, R.raw.cow};
+        String[] titles = {"Cow", "Bull", "Another cow"};
+        assertEquals(2, RingtoneUtilities.saveAllToStorage(getContext(), soundClipIds, titles, null));
+        assertEquals(getResourceChecksum(R.raw.cow), getFileChecksum(new File(directory, "cow.mp3")));
+        assertEquals(getResourceChecksum(R.raw.bull), getFileChecksum(new File(directory, "bull.mp3")));
+    }
+
+    public void testExportAllSoundsRecordsEachClipOnce() throws IOException {
+        int[] soundClipIds = {R.raw.cow, R.raw.bull, R.raw.cow};
+        String[] titles = {"Cow", "Bull", "Another cow"};
+        assertEquals(2, RingtoneUtilities.exportAllSounds(getContext(), soundClipIds, titles, null));
+        if (Build.VERSION.SDK_INT < 29) {
+            // The sounds were written as files, which the tests above cover
+            return;
+        }
+        ExportManifest manifest = new ExportManifest(getContext());
+        ExportManifest.Entry cow = manifest.get("Ringtones/GenericAndroidSoundboard/cow.mp3");
+        ExportManifest.Entry bull = manifest.get("Ringtones/GenericAndroidSoundboard/bull.mp3");
+        assertNotNull(cow);
+        assertNotNull(bull);
+        assertEquals(getResourceChecksum(R.raw.cow), cow.getChecksum());
+        assertEquals(getResourceChecksum(R.raw.bull), bull.getChecksum());
+        // Exporting again keeps the same entries
+        assertEquals(2, RingtoneUtilities.exportAllSounds(getContext(), soundClipIds, titles, null));
+        assertEquals(ContentUris.parseId(cow.getUri()),
+                ContentUris.parseId(manifest.get("Ringtones/GenericAndroidSoundboard/cow.mp3").getUri()));
+        assertEquals(ContentUris.parseId(bull.getUri()),
+                ContentUris.parseId(manifest.get("Ringtones/GenericAndroidSoundboard/bull.mp3").getUri()));
+    }
+
+    /**
+     * Calculates the checksum of a sound resource
+     * @param soundClipId The ID of the sound clip resource
+     * @return The CRC32 checksum
+     * @throws IOException If the resource could not be read
+     */
+    private long getResourceChecksum(int soundClipId) throws IOException {
+        InputStream inputStream = getContext().getResources().openRawResource(soundClipId);
+        try {
+            return StreamUtilities.checksum(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Calculates the checksum of a file
+     * @param file The file
+     * @return The CRC32 checksum
+     * @throws IOException If the file could not be read
+     */
+    private static long getFileChecksum(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return StreamUtilities.checksum(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.hjortur.soundboard;
 import android.app.Activity;
 import android.app.ActionBar;
 import android.app.Fragment;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.media.AudioManager;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -11,8 +13,13 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.GridView;
+import android.widget.SearchView;
+import android.widget.Toast;
 
 import com.hjortur.soundboard.adapters.GridAdapter;
+import com.hjortur.soundboard.controls.PadView;
+import com.hjortur.soundboard.stats.LatencyTracker;
+import com.hjortur.soundboard.utilities.ExportQueue;
 
 /**
  * Logic for the main activity of the application
@@ -39,6 +46,26 @@ public class MainActivity extends Activity {
         
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        // The latency statistics are only of interest while debugging
+        menu.findItem(R.id.action_dump_latency).setVisible(BuildConfig.DEBUG);
+
+        // Filter the sounds as the search text is typed
+        SearchView searchView = (SearchView)menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                PlaceholderFragment fragment = (PlaceholderFragment)getFragmentManager().findFragmentById(R.id.container);
+                if (fragment != null) {
+                    fragment.setFilter(newText);
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -51,6 +78,17 @@ public class MainActivity extends Activity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_dump_latency) {
+            LatencyTracker.dump();
+            return true;
+        }
+        if (id == R.id.action_export_all) {
+            PlaceholderFragment fragment = (PlaceholderFragment)getFragmentManager().findFragmentById(R.id.container);
+            if (fragment != null) {
+                fragment.exportAllSounds();
+            }
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -58,6 +96,14 @@ public class MainActivity extends Activity {
      * A placeholder fragment containing a simple view.
      */
     public static class PlaceholderFragment extends Fragment {
+        /**
+         * The adapter for the sound buttons
+         */
+        private GridAdapter gridAdapter;
+        /**
+         * Shows the progress of exporting all the sounds, null when no export is shown
+         */
+        private ProgressDialog exportDialog;
 
         public PlaceholderFragment() {
         }
@@ -65,12 +111,98 @@ public class MainActivity extends Activity {
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                 Bundle savedInstanceState) {
-            View rootView = inflater.inflate(R.layout.fragment_main, container, false);
-            GridView gridView = (GridView)rootView.findViewById(R.id.gridView);
-            gridView.setAdapter(new GridAdapter(rootView.getContext()));
+            View rootView;
+            if (getResources().getBoolean(R.bool.use_pad_view)) {
+                rootView = inflater.inflate(R.layout.fragment_pads, container, false);
+                PadView padView = (PadView)rootView.findViewById(R.id.padView);
+                padView.setTriggerOnTouchDown(getResources().getBoolean(R.bool.trigger_pads_on_touch_down));
+                gridAdapter = new GridAdapter(rootView.getContext());
+                gridAdapter.attachPadView(padView);
+            } else {
+                rootView = inflater.inflate(R.layout.fragment_main, container, false);
+                GridView gridView = (GridView)rootView.findViewById(R.id.gridView);
+                gridAdapter = new GridAdapter(rootView.getContext());
+                gridView.setAdapter(gridAdapter);
+            }
 
             return rootView;
         }
+
+        /**
+         * Shows only the sounds whose name or category contains a text
+         * @param text The filter text, an empty text shows all the sounds
+         */
+        public void setFilter(CharSequence text) {
+            if (gridAdapter != null) {
+                gridAdapter.setFilter(text);
+            }
+        }
+
+        /**
+         * Saves all the sounds to the device storage, showing the progress in a dialog that can
+         * cancel the export
+         */
+        public void exportAllSounds() {
+            if (gridAdapter == null || exportDialog != null) {
+                return;
+            }
+            final ExportQueue.BulkExport export = gridAdapter.exportAllSounds(new ExportQueue.BulkExportListener() {
+                @Override
+                public void onBulkExportProgress(int soundsDone, int soundCount) {
+                    if (exportDialog != null) {
+                        exportDialog.setMax(soundCount);
+                        exportDialog.setProgress(soundsDone);
+                    }
+                }
+
+                @Override
+                public void onBulkExportFinished(int savedCount) {
+                    dismissExportDialog();
+                }
+
+                @Override
+                public void onBulkExportFailed(Exception ex) {
+                    dismissExportDialog();
+                }
+            });
+            if (export == null) {
+                Toast.makeText(getActivity(), "The sounds haven't been loaded yet", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            exportDialog = new ProgressDialog(getActivity());
+            exportDialog.setTitle(R.string.action_export_all);
+            exportDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            exportDialog.setCancelable(true);
+            exportDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                @Override
+                public void onCancel(DialogInterface dialog) {
+                    export.cancel(true);
+                    exportDialog = null;
+                }
+            });
+            exportDialog.show();
+        }
+
+        /**
+         * Hides the progress of exporting all the sounds
+         */
+        private void dismissExportDialog() {
+            if (exportDialog != null) {
+                exportDialog.dismiss();
+                exportDialog = null;
+            }
+        }
+
+        @Override
+        public void onDestroyView() {
+            super.onDestroyView();
+            // The export carries on in the background, the result is shown when it's done
+            dismissExportDialog();
+            if (gridAdapter != null) {
+                gridAdapter.release();
+                gridAdapter = null;
+            }
+        }
     }
 
 }
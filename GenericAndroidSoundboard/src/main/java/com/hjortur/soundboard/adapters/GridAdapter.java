@@ -1,10 +1,10 @@
 package com.hjortur.soundboard.adapters;
 
 import android.content.Context;
-import android.content.OperationApplicationException;
 import android.media.AudioManager;
 import android.media.RingtoneManager;
-import android.media.SoundPool;
+import android.os.AsyncTask;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -14,64 +14,148 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.PopupMenu;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import com.hjortur.soundboard.R;
+import com.hjortur.soundboard.audio.PlaybackEngine;
+import com.hjortur.soundboard.audio.PlaybackEngines;
+import com.hjortur.soundboard.catalog.SearchIndex;
+import com.hjortur.soundboard.catalog.SoundCatalog;
+import com.hjortur.soundboard.catalog.SoundCatalogReader;
+import com.hjortur.soundboard.catalog.SoundItem;
+import com.hjortur.soundboard.controls.PadView;
 import com.hjortur.soundboard.controls.SquareImageButton;
+import com.hjortur.soundboard.controls.SquareImageButton.OnSquareSizeChangedListener;
+import com.hjortur.soundboard.images.ThumbnailLoader;
+import com.hjortur.soundboard.utilities.ExportQueue;
 import com.hjortur.soundboard.utilities.RingtoneUtilities;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
 
 /**
- * The GridAdapter class is used to build the layout for the soundboard.
+ * The GridAdapter class is used to build the layout for the soundboard. It either provides the
+ * cells of a GridView or the pads of a PadView.
  * @author Hjörtur Líndal Stefánsson
  */
 public class GridAdapter extends BaseAdapter {
     /**
-     * A list of all the SoundItem instances that contain our data for each button
+     * The tag used for logging
      */
-    private final List<SoundItem> soundItems = new ArrayList<SoundItem>();
+    private static final String TAG = "GridAdapter";
+    /**
+     * The catalog that contains our data for each button. Empty until it has been read
+     */
+    private SoundCatalog catalog = new SoundCatalog();
+    /**
+     * The index used for filtering the sounds by name. Null until the catalog has been read
+     */
+    private SearchIndex searchIndex;
+    /**
+     * The current filter text, an empty text shows all the sounds
+     */
+    private CharSequence filterText = "";
     /**
      * The layout inflater
      */
     private final LayoutInflater inflater;
     /**
-     * The SoundPool is used for playing the audio
+     * The listener that handles the onClick and onLongClick events of all the buttons
+     */
+    private final ButtonListener buttonListener = new ButtonListener();
+    /**
+     * The PlaybackEngine is used for playing the audio
+     */
+    private final PlaybackEngine playbackEngine;
+    /**
+     * The ThumbnailLoader decodes the images at the size of the cells
+     */
+    private final ThumbnailLoader thumbnailLoader;
+    /**
+     * The size of the cells in pixels, or 0 until the first one has been measured
      */
-    private final SoundPool soundPool;
+    private int cellSize;
+    /**
+     * Set when the adapter has been released
+     */
+    private boolean released;
 
     /**
-     * Public constructor. Adds the data to our soundItems list and initialize the SoundPool
+     * Public constructor. Starts reading the catalog in the background
      * @param context
      */
     public GridAdapter(Context context) {
         inflater = LayoutInflater.from(context);
+        playbackEngine = PlaybackEngines.create(context);
+        thumbnailLoader = new ThumbnailLoader(context);
+        new LoadCatalogTask(context).execute();
+    }
+
+    /**
+     * Releases the samples and images that have been loaded. Should be called when the adapter is no longer used
+     */
+    public void release() {
+        released = true;
+        playbackEngine.release();
+        thumbnailLoader.release();
+    }
+
+    /**
+     * Shows only the sounds whose name or category contains a text. The filtered positions are
+     * kept by the search index, so the catalog is neither copied nor reallocated
+     * @param text The filter text, an empty text shows all the sounds
+     */
+    public void setFilter(CharSequence text) {
+        filterText = text == null ? "" : text;
+        if (searchIndex != null) {
+            searchIndex.search(filterText);
+        }
+        notifyDataSetChanged();
+    }
 
-        soundItems.add(new SoundItem("Bull", R.drawable.cow_one, R.raw.bull));
-        soundItems.add(new SoundItem("Cow and bell", R.drawable.cow_two, R.raw.cow_and_bell));
-        soundItems.add(new SoundItem("Cow mooing",R.drawable.cow_three, R.raw.cow_mooing));
-        soundItems.add(new SoundItem("Cow moos", R.drawable.cow_one, R.raw.cow_moos));
-        soundItems.add(new SoundItem("Cow", R.drawable.cow_two, R.raw.cow));
-        soundItems.add(new SoundItem("Another cow", R.drawable.cow_three, R.raw.another_cow));
-        // Just add the same items again so we'll have enough to work with
-        soundItems.add(new SoundItem("Bull", R.drawable.cow_one, R.raw.bull));
-        soundItems.add(new SoundItem("Cow and bell", R.drawable.cow_two, R.raw.cow_and_bell));
-        soundItems.add(new SoundItem("Cow mooing",R.drawable.cow_three, R.raw.cow_mooing));
-        soundItems.add(new SoundItem("Cow moos", R.drawable.cow_one, R.raw.cow_moos));
-        soundItems.add(new SoundItem("Cow", R.drawable.cow_two, R.raw.cow));
-        soundItems.add(new SoundItem("Another cow", R.drawable.cow_three, R.raw.another_cow));
+    /**
+     * Saves all the sounds to the device storage in the background, so they can be picked as tones
+     * @param listener The listener that is notified on the UI thread, may be null
+     * @return The export, which can be cancelled, or null if the catalog hasn't been read yet
+     */
+    public ExportQueue.BulkExport exportAllSounds(ExportQueue.BulkExportListener listener) {
+        if (catalog.getCount() == 0) {
+            return null;
+        }
+        return RingtoneUtilities.exportAll(inflater.getContext(), catalog, listener);
+    }
 
-        soundPool = new SoundPool(10, AudioManager.STREAM_MUSIC, 0);
+    /**
+     * Shows the sounds in a PadView instead of a GridView. The pads share the images, the filter
+     * and the playback with the grid cells
+     * @param padView The PadView
+     */
+    public void attachPadView(PadView padView) {
+        padView.setThumbnailLoader(thumbnailLoader);
+        padView.setOnPadClickListener(buttonListener);
+        padView.setAdapter(this);
     }
 
     /**
-     * Get the count of all our sound buttons
-     * @return The count of the soundItems list
+     * Get the count of the sound buttons that are shown
+     * @return The count of the sounds that match the filter
      */
     @Override
     public int getCount() {
-        return soundItems.size();
+        if (searchIndex == null || filterText.length() == 0) {
+            return catalog.getCount();
+        }
+        return searchIndex.getResultCount();
+    }
+
+    /**
+     * Maps a position in the grid to a position in the catalog
+     * @param position The position in the grid
+     * @return The position in the catalog
+     */
+    private int getCatalogPosition(int position) {
+        if (searchIndex == null || filterText.length() == 0) {
+            return position;
+        }
+        return searchIndex.getResult(position);
     }
 
     /**
@@ -81,7 +165,7 @@ public class GridAdapter extends BaseAdapter {
      */
     @Override
     public Object getItem(int position) {
-        return soundItems.get(position);
+        return catalog.getItem(getCatalogPosition(position));
     }
 
     /**
@@ -91,12 +175,14 @@ public class GridAdapter extends BaseAdapter {
      */
     @Override
     public long getItemId(int position) {
-        return soundItems.get(position).drawableId;
+        return catalog.getDrawableId(getCatalogPosition(position));
     }
 
     /**
-     * Overrides the getView method for the adapter. Here we set the data for the layout
-     * as well as set up events for the onClick and onLongClick events
+     * Overrides the getView method for the adapter. Here we set the data for the layout.
+     * The views are bound through a ViewHolder and share a single listener for the onClick and
+     * onLongClick events, so binding a recycled view creates no holders, listeners or strings of
+     * its own. A view that already shows the item isn't touched at all
      * @param position The position of the item within the adapter's data set of the item whose view we want.
      * @param view The old view to reuse, if possible.
      * @param parent The parent that this view will eventually be attached to
@@ -104,67 +190,64 @@ public class GridAdapter extends BaseAdapter {
      */
     @Override
     public View getView(int position, View view, ViewGroup parent) {
-        Context context = null;
-        SquareImageButton picture;
-        TextView name;
-        try
-        {
-            if (view == null) {
-                view = inflater.inflate(R.layout.square_image_button, parent, false);
-                if (view == null) {
-                    throw new OperationApplicationException("Could not load view");
-                }
-                view.setTag(R.id.picture, view.findViewById(R.id.picture));
-                view.setTag(R.id.text, view.findViewById(R.id.text));
-            }
-            // Initialize the controls
-            picture = (SquareImageButton)view.getTag(R.id.picture);
-            name = (TextView)view.getTag(R.id.text);
-            context = view.getContext();
-            SoundItem item = (SoundItem)getItem(position);
-
-            if (picture != null) {
-                picture.setImageResource(item.drawableId);
-                picture.setFocusable(true);
-                picture.setSoundClipId(item.soundFile);
-                picture.setTitle(item.name);
-                picture.setClickable(true);
-                picture.setOnClickListener(new OnClickListener() {
-                    @Override
-                    public void onClick(View arg0) {
-                        playSound(arg0);
-                    }
-                });
-                picture.setOnLongClickListener(new OnLongClickListener() {
-                    @Override
-                    public boolean onLongClick(View v) {
-                        showPopupMenu(v);
-                        return false;
-                    }
-                });
-            }
-            if (name != null) {
-                name.setText(item.name);
-            }
+        ViewHolder holder;
+        if (view == null) {
+            view = inflater.inflate(R.layout.square_image_button, parent, false);
+            holder = new ViewHolder();
+            holder.picture = (SquareImageButton)view.findViewById(R.id.picture);
+            holder.name = (TextView)view.findViewById(R.id.text);
+            holder.picture.setTag(holder);
+            holder.picture.setFocusable(true);
+            holder.picture.setClickable(true);
+            holder.picture.setOnClickListener(buttonListener);
+            holder.picture.setOnLongClickListener(buttonListener);
+            holder.picture.setOnSquareSizeChangedListener(buttonListener);
+            view.setTag(holder);
+        } else {
+            holder = (ViewHolder)view.getTag();
         }
-        catch(Exception ex)
-        {
-            if(context != null) {
-                Toast toast = Toast.makeText(context, "An error occurred: " + ex.getMessage(), Toast.LENGTH_SHORT);
-                toast.show();
-            }
+        int catalogPosition = getCatalogPosition(position);
+        SoundItem item = catalog.getItem(catalogPosition);
+        holder.position = catalogPosition;
+        if (holder.item == item) {
+            // The view is bound again while it shows the same sound, e.g. when the grid is laid out
+            return view;
+        }
+        holder.item = item;
+        // Only load the image again when the recycled view was showing a different one
+        if (holder.drawableId != item.getDrawableId()) {
+            holder.drawableId = item.getDrawableId();
+            loadImage(holder.picture, holder.drawableId);
         }
+        holder.picture.setSoundClipId(item.getSoundFile());
+        holder.picture.setTitle(item.getName());
+        holder.name.setText(item.getName());
         return view;
     }
 
     /**
-     * Plays a sound using the AudioManager class
-     * @param view The square image button view that was clicked
+     * Shows an image in a button at the size of the cell. If no cell has been measured yet the
+     * image is loaded once the button has been measured
+     * @param picture The button
+     * @param drawableId The drawable ID of the image
      */
-    private void playSound(View view) {
-        Context context = view.getContext();
-        SquareImageButton button = (SquareImageButton)view;
-        final int soundId = soundPool.load(button.getContext(), button.getSoundClipId(), 1);
+    private void loadImage(SquareImageButton picture, int drawableId) {
+        int size = picture.getSquareSize() > 0 ? picture.getSquareSize() : cellSize;
+        if (size > 0) {
+            thumbnailLoader.load(drawableId, size, picture);
+        } else {
+            picture.setImageDrawable(null);
+        }
+    }
+
+    /**
+     * Plays a sound using the playback engine
+     * @param context The context of the view that was clicked
+     * @param catalogPosition The position of the sound in the catalog
+     * @param tapTime The System.nanoTime() when the view was touched
+     */
+    private void playSound(Context context, int catalogPosition, long tapTime) {
+        int soundId = catalog.getSoundId(catalogPosition);
         AudioManager audioManager = null;
         if (context != null) {
             audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
@@ -180,21 +263,18 @@ public class GridAdapter extends BaseAdapter {
         }
         final float volume = actualVolume / maxVolume;
 
-        soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
-            @Override
-            public void onLoadComplete(SoundPool soundPool, int i, int i2) {
-                soundPool.play(soundId, volume, volume, 1, 0, 1f);
-            }
-        });
+        playbackEngine.play(soundId, volume, tapTime);
     }
 
     /**
      * Display the pop up menu when the image is pressed for a short while
-     * @param view The square image button view that was clicked
+     * @param view The view the pop up menu is anchored to
+     * @param catalogPosition The position of the sound in the catalog
      */
-    private void showPopupMenu(View view){
-        Context context = view.getContext();
-    	final SquareImageButton imageView = (SquareImageButton)view;
+    private void showPopupMenu(View view, int catalogPosition){
+        final Context context = view.getContext();
+        final int soundId = catalog.getSoundId(catalogPosition);
+        final String title = catalog.getName(catalogPosition);
         if(context != null){
             PopupMenu popupMenu = new PopupMenu(context, view);
             popupMenu.getMenuInflater().inflate(R.menu.popupmenu, popupMenu.getMenu());
@@ -204,10 +284,10 @@ public class GridAdapter extends BaseAdapter {
                 public boolean onMenuItemClick(MenuItem item) {
                     switch(item.getItemId()){
                         case R.id.saveNotification:
-                            RingtoneUtilities.setTone(imageView, RingtoneManager.TYPE_NOTIFICATION);
+                            RingtoneUtilities.setTone(context, soundId, title, RingtoneManager.TYPE_NOTIFICATION);
                             break;
                         case R.id.saveRingtone:
-                            RingtoneUtilities.setTone(imageView, RingtoneManager.TYPE_RINGTONE);
+                            RingtoneUtilities.setTone(context, soundId, title, RingtoneManager.TYPE_RINGTONE);
                             break;
                         default:
                             break;
@@ -221,32 +301,129 @@ public class GridAdapter extends BaseAdapter {
     }
 
     /**
-     * A small wrapper class for each sound item
+     * Holds the controls of a grid cell so they don't need to be looked up every time it's bound
      */
-    private class SoundItem {
+    private static class ViewHolder {
+        /**
+         * The image button
+         */
+        SquareImageButton picture;
+        /**
+         * The label with the name of the sound
+         */
+        TextView name;
         /**
-         * The name
+         * The item the cell is showing, or null if it hasn't been bound
          */
-        final String name;
+        SoundItem item;
+        /**
+         * The position in the catalog of the item the cell is showing
+         */
+        int position;
+        /**
+         * The drawable ID of the image the button is showing
+         */
+        int drawableId;
+    }
+
+    /**
+     * Handles the onClick and onLongClick events of all the buttons and pads, and loads the images
+     * of the buttons when they are measured. The item of a button is found through the ViewHolder
+     * that is stored in its tag
+     */
+    private class ButtonListener implements OnClickListener, OnLongClickListener, OnSquareSizeChangedListener,
+            PadView.OnPadClickListener {
+        @Override
+        public void onClick(View view) {
+            playSound(view.getContext(), ((ViewHolder)view.getTag()).position, System.nanoTime());
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            showPopupMenu(view, ((ViewHolder)view.getTag()).position);
+            return false;
+        }
+
+        @Override
+        public void onPadTouchDown(PadView view, int position, long tapTime) {
+            playSound(view.getContext(), getCatalogPosition(position), tapTime);
+        }
+
+        @Override
+        public void onPadClick(PadView view, int position) {
+            playSound(view.getContext(), getCatalogPosition(position), System.nanoTime());
+        }
+
+        @Override
+        public boolean onPadLongClick(PadView view, int position) {
+            showPopupMenu(view, getCatalogPosition(position));
+            return true;
+        }
+
+        @Override
+        public void onSquareSizeChanged(final SquareImageButton button, final int size) {
+            cellSize = size;
+            // Showing the image changes the drawable, which shouldn't happen while the grid is being measured
+            button.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!released) {
+                        thumbnailLoader.load(((ViewHolder)button.getTag()).drawableId, size, button);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the catalog and builds the search index in the background, and starts loading the
+     * samples once it has been read
+     */
+    private class LoadCatalogTask extends AsyncTask<Void, Void, SoundCatalog> {
         /**
-         * The drawable ID
+         * The reader for the catalog
          */
-        final int drawableId;
+        private final SoundCatalogReader reader;
         /**
-         * The sound file
+         * The search index for the catalog, built in the background along with it
          */
-        final int soundFile;
+        private SearchIndex index;
 
         /**
-         * public constructor
-         * @param name The name
-         * @param drawableId The drawable ID
-         * @param soundFile The sound file
+         * Public constructor
+         * @param context The context
          */
-        public SoundItem(String name, int drawableId, int soundFile) {
-            this.name = name;
-            this.drawableId = drawableId;
-            this.soundFile = soundFile;
+        public LoadCatalogTask(Context context) {
+            reader = new SoundCatalogReader(context);
+        }
+
+        @Override
+        protected SoundCatalog doInBackground(Void... params) {
+            try {
+                SoundCatalog result = reader.read();
+                index = new SearchIndex(result);
+                return result;
+            } catch (IOException ex) {
+                Log.e(TAG, "Could not read the sound catalog", ex);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(SoundCatalog result) {
+            if (result == null || released) {
+                return;
+            }
+            catalog = result;
+            searchIndex = index;
+            // Apply the filter text that may have been entered while the catalog was being read
+            searchIndex.search(filterText);
+            notifyDataSetChanged();
+            playbackEngine.setCatalog(catalog);
+            // Start decoding the samples right away so they are ready when the buttons are tapped
+            for (int i = 0; i < catalog.getCount(); i++) {
+                playbackEngine.preload(catalog.getSoundId(i));
+            }
         }
     }
 }
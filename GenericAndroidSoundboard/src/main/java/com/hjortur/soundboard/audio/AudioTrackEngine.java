@@ -0,0 +1,1101 @@
+package com.hjortur.soundboard.audio;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.hjortur.soundboard.R;
+import com.hjortur.soundboard.audio.mixer.AdpcmSource;
+import com.hjortur.soundboard.audio.mixer.Mixer;
+import com.hjortur.soundboard.audio.mixer.RingBufferSource;
+import com.hjortur.soundboard.audio.mixer.SampleArena;
+import com.hjortur.soundboard.audio.mixer.SampleSource;
+import com.hjortur.soundboard.audio.mixer.ShortBufferSource;
+import com.hjortur.soundboard.catalog.ClipInfo;
+import com.hjortur.soundboard.catalog.SoundCatalog;
+import com.hjortur.soundboard.stats.LatencyTracker;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A low latency playback engine. The sound clips are decoded to PCM up front, or memory mapped
+ * from the disk cache if they have been decoded before, and a dedicated audio thread mixes the
+ * active voices into a single streaming AudioTrack that uses the smallest buffer the device allows.
+ * Long clips aren't decoded up front. Only their first few hundred milliseconds are kept, and the
+ * rest is decoded into a small ring buffer while they play, so they take the same amount of memory
+ * no matter how long they are. A few ring buffers and decoding threads are shared by all the long
+ * clips, when they are all busy the stream that was started first is taken over.
+ * The decoded clips can optionally be kept in a more compact form, in mono when both channels are
+ * the same and as IMA ADPCM, which the mixer decodes as it plays them.
+ * Samples that aren't memory mapped are decoded straight into an arena outside of the Java heap,
+ * so large clips don't make the garbage collector pause the audio thread. The arena is kept within
+ * a memory budget by evicting the samples that were played the longest time ago.
+ * @author Hjörtur Líndal Stefánsson
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class AudioTrackEngine implements PlaybackEngine {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "AudioTrackEngine";
+    /**
+     * The maximum number of sounds that can be played at the same time
+     */
+    private static final int MAX_VOICES = 32;
+    /**
+     * Clips that are longer than this are streamed instead of being decoded up front, in microseconds
+     */
+    private static final long STREAMING_THRESHOLD_US = 8000000L;
+    /**
+     * How much of a streamed clip is decoded up front, so it can start right away, in milliseconds
+     */
+    private static final int PRE_DECODE_MS = 400;
+    /**
+     * How much of a streamed clip the ring buffer holds, in milliseconds
+     */
+    private static final int STREAM_BUFFER_MS = 500;
+    /**
+     * The maximum number of long clips that can be streamed at the same time
+     */
+    private static final int MAX_STREAMS = 4;
+    /**
+     * The size of the AudioTrack buffer when the device doesn't report its minimum, in milliseconds
+     */
+    private static final int DEFAULT_BUFFER_MS = 40;
+    /**
+     * How many times in a row the AudioTrack may fail before the engine gives up
+     */
+    private static final int MAX_TRACK_FAILURES = 3;
+    /**
+     * How long to wait before the AudioTrack is created again after a failure, in milliseconds
+     */
+    private static final long TRACK_RETRY_DELAY_MS = 200;
+    /**
+     * How long the release waits for the streaming threads to stop, in milliseconds
+     */
+    private static final long STREAM_SHUTDOWN_TIMEOUT_MS = 1000;
+
+    /**
+     * The context used for loading the sound resources
+     */
+    private final Context context;
+    /**
+     * The decoder that turns the sound resources into PCM
+     */
+    private final PcmDecoder decoder;
+    /**
+     * The cache holding the clips that have been decoded before
+     */
+    private final PcmDiskCache diskCache;
+    /**
+     * The executor that decodes the sound resources in the background
+     */
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * The executor running the decoding threads of the stream slots
+     */
+    private final ExecutorService streamExecutor = Executors.newFixedThreadPool(MAX_STREAMS);
+    /**
+     * The decoded samples keyed by the sound resource ID
+     */
+    private final SparseArray<ResidentSample> samples = new SparseArray<ResidentSample>();
+    /**
+     * Holds the samples, and the first parts of the streamed clips, that aren't memory mapped
+     */
+    private final SampleArena arena = new SampleArena();
+    /**
+     * The largest number of bytes the arena may hold before samples are evicted
+     */
+    private final long maxArenaBytes;
+    /**
+     * Incremented every time a sample is played, used for finding the least recently played sample
+     */
+    private long usageCounter;
+    /**
+     * The number of samples that have been evicted to keep the arena within its budget
+     */
+    private int evictionCount;
+    /**
+     * Whether samples with identical channels are kept in mono
+     */
+    private final boolean downmixIdenticalChannels;
+    /**
+     * Whether samples are kept as IMA ADPCM
+     */
+    private final boolean encodeAsAdpcm;
+    /**
+     * The first part of the streamed clips keyed by the sound resource ID
+     */
+    private final SparseArray<ResidentSample> streamHeads = new SparseArray<ResidentSample>();
+    /**
+     * The slots the long clips are streamed through, created as they are needed
+     */
+    private final StreamSlot[] streamSlots = new StreamSlot[MAX_STREAMS];
+    /**
+     * Incremented every time a stream is started, used for finding the oldest stream
+     */
+    private long streamCounter;
+    /**
+     * The output sample rate
+     */
+    private final int sampleRate;
+    /**
+     * The plays that were requested before the sample was decoded, keyed by the sound resource ID.
+     * A resource is in this list while it's being decoded
+     */
+    private final SparseArray<List<PendingPlay>> pendingPlays = new SparseArray<List<PendingPlay>>();
+    /**
+     * The catalog holding the properties of the clips, null until it has been read
+     */
+    private volatile SoundCatalog catalog;
+    /**
+     * The thread that mixes the voices and writes them to the AudioTrack
+     */
+    private final MixerThread mixerThread;
+    /**
+     * Set when the engine has been released, guarded by samples
+     */
+    private boolean released;
+
+    /**
+     * Public constructor
+     * @param context The context
+     */
+    public AudioTrackEngine(Context context) {
+        this.context = context.getApplicationContext();
+        sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        downmixIdenticalChannels = context.getResources().getBoolean(R.bool.downmix_identical_channels);
+        encodeAsAdpcm = context.getResources().getBoolean(R.bool.encode_samples_as_adpcm);
+        maxArenaBytes = SampleCache.getDefaultMaxDecodedBytes(context);
+        decoder = new PcmDecoder(sampleRate);
+        diskCache = new PcmDiskCache(context, sampleRate);
+        // Clearing out the old versions of the cache runs before any of the clips are decoded
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                diskCache.prepare();
+            }
+        });
+        mixerThread = new MixerThread(sampleRate);
+        mixerThread.start();
+    }
+
+    @Override
+    public void setCatalog(SoundCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void preload(int resourceId) {
+        synchronized (samples) {
+            if (released || samples.get(resourceId) != null || streamHeads.get(resourceId) != null
+                    || pendingPlays.get(resourceId) != null) {
+                return;
+            }
+            pendingPlays.put(resourceId, new ArrayList<PendingPlay>());
+            // Queued under the lock, so release() can't shut the executor down in between
+            decodeExecutor.execute(new DecodeTask(resourceId));
+        }
+    }
+
+    @Override
+    public void play(int resourceId, float volume, long tapTime) {
+        ResidentSample head;
+        synchronized (samples) {
+            if (released) {
+                return;
+            }
+            ResidentSample sample = samples.get(resourceId);
+            if (sample != null) {
+                sample.lastUsed = usageCounter++;
+                // Started under the lock, so the sample can't be evicted and freed before its voice plays
+                trigger(sample.sample, volume, tapTime);
+                return;
+            }
+            head = streamHeads.get(resourceId);
+            if (head == null) {
+                List<PendingPlay> plays = pendingPlays.get(resourceId);
+                if (plays != null) {
+                    plays.add(new PendingPlay(volume, tapTime));
+                    return;
+                }
+            }
+        }
+        if (head != null) {
+            stream(resourceId, (ShortBufferSource) head.sample, volume, tapTime);
+        } else {
+            preload(resourceId);
+            play(resourceId, volume, tapTime);
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (samples) {
+            released = true;
+        }
+        mixerThread.quit();
+        try {
+            // The audio thread may still be mixing the samples in the arena, wait for it to release the AudioTrack
+            mixerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        streamExecutor.shutdownNow();
+        synchronized (streamSlots) {
+            for (StreamSlot slot : streamSlots) {
+                if (slot != null) {
+                    slot.source.close();
+                }
+            }
+        }
+        // A clip may still be decoding into the arena. The arena is cleared on the decoding thread
+        // once it's done, the decode tasks that are still queued see the flag and do nothing
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    streamExecutor.awaitTermination(STREAM_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                freeSamples();
+            }
+        });
+        decodeExecutor.shutdown();
+    }
+
+    /**
+     * Gives the pieces of all the samples back and clears the arena. Only called on the decoding
+     * thread after the engine has been released, when nothing plays or decodes the samples any more
+     */
+    private void freeSamples() {
+        synchronized (samples) {
+            for (int i = 0; i < samples.size(); i++) {
+                samples.valueAt(i).free();
+            }
+            for (int i = 0; i < streamHeads.size(); i++) {
+                streamHeads.valueAt(i).free();
+            }
+            samples.clear();
+            streamHeads.clear();
+            pendingPlays.clear();
+        }
+        arena.clear();
+    }
+
+    /**
+     * Gets the duration of a clip from the catalog
+     * @param resourceId The ID of the sound resource
+     * @return The duration in microseconds, or -1 if the clip isn't in the catalog
+     */
+    private long getCatalogDurationUs(int resourceId) {
+        SoundCatalog catalog = this.catalog;
+        ClipInfo clipInfo = (catalog != null) ? catalog.getClipInfo(resourceId) : null;
+        return (clipInfo != null && clipInfo.getDuration() > 0) ? clipInfo.getDuration() * 1000L : -1;
+    }
+
+    /**
+     * Gets the memory a decoded sample takes. Streamed clips only keep their first part
+     * @param resourceId The ID of the sound resource
+     * @return The size in bytes, 0 if the sample hasn't been decoded
+     */
+    public int getResidentBytes(int resourceId) {
+        synchronized (samples) {
+            ResidentSample sample = samples.get(resourceId);
+            if (sample == null) {
+                sample = streamHeads.get(resourceId);
+            }
+            return (sample != null) ? sample.size : 0;
+        }
+    }
+
+    /**
+     * Gets the memory all the decoded samples take
+     * @return The size in bytes
+     */
+    public long getTotalResidentBytes() {
+        synchronized (samples) {
+            long total = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                total += samples.valueAt(i).size;
+            }
+            for (int i = 0; i < streamHeads.size(); i++) {
+                total += streamHeads.valueAt(i).size;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Gets the number of samples that have been evicted to keep the arena within its budget
+     * @return The eviction count
+     */
+    public int getEvictionCount() {
+        synchronized (samples) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Gets the arena holding the samples that aren't memory mapped, e.g. for its statistics
+     * @return The arena
+     */
+    public SampleArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Converts a decoded sample to the form it's kept in, as configured
+     * @param sample The decoded sample, memory mapped or in the arena
+     * @param allocation The piece of the arena holding the sample, null if it's memory mapped
+     * @return The sample that is kept
+     */
+    private ResidentSample makeResident(PcmSample sample, SampleArena.Allocation allocation) {
+        ShortBufferSource pcm = sample;
+        SampleArena.Allocation pcmAllocation = allocation;
+        if (downmixIdenticalChannels && sample.hasIdenticalChannels()) {
+            SampleArena.Allocation monoAllocation = allocate(sample.getFrameCount() * 2);
+            pcm = sample.toMono(monoAllocation.getBuffer().asShortBuffer());
+            if (pcmAllocation != null) {
+                arena.free(pcmAllocation);
+            }
+            pcmAllocation = monoAllocation;
+        }
+        if (encodeAsAdpcm) {
+            SampleArena.Allocation codes = allocate(
+                    AdpcmSource.getCodeSize(pcm.getFrameCount(), pcm.getChannelCount()));
+            AdpcmSource encoded = AdpcmSource.encode(pcm, codes.getBuffer());
+            if (pcmAllocation != null) {
+                // Only needed for encoding, the space is reused by the next clip
+                arena.free(pcmAllocation);
+            }
+            return new ResidentSample(encoded, codes);
+        }
+        return new ResidentSample(pcm, pcmAllocation);
+    }
+
+    /**
+     * Decodes a stream straight into a piece of the arena, so the clip never needs a copy on the
+     * Java heap. The piece is sized from the expected length of the clip and grown if the clip
+     * turns out to be longer
+     * @param stream The stream
+     * @param expectedFrames The expected number of frames
+     * @param maxFrames The largest number of frames to decode
+     * @return The decoded sample, holding the piece of the arena
+     * @throws IOException If the stream could not be decoded
+     */
+    private ResidentSample decodeToArena(PcmDecoder.Stream stream, int expectedFrames, int maxFrames)
+            throws IOException {
+        int capacityFrames = Math.max(Math.min(expectedFrames, maxFrames), 1);
+        SampleArena.Allocation allocation = allocate(capacityFrames * 4);
+        boolean decoded = false;
+        try {
+            ShortBuffer data = allocation.getBuffer().asShortBuffer();
+            int frames = decoder.decode(stream, data);
+            while (frames == capacityFrames && capacityFrames < maxFrames && !stream.isFinished()) {
+                // The clip is longer than expected, carry on in a piece twice the size
+                capacityFrames = (int) Math.min((long) capacityFrames * 2, maxFrames);
+                allocation = moveTo(allocation, data, capacityFrames * 4);
+                data = allocation.getBuffer().asShortBuffer();
+                data.position(frames * 2);
+                frames += decoder.decode(stream, data);
+            }
+            if (frames < capacityFrames - capacityFrames / 8) {
+                // Far too much was reserved, give the rest back by moving the clip to a piece of its size
+                allocation = moveTo(allocation, data, frames * 4);
+            }
+            decoded = true;
+            return new ResidentSample(new PcmSample(allocation.getBuffer().asShortBuffer(), frames), allocation);
+        } finally {
+            if (!decoded) {
+                arena.free(allocation);
+            }
+        }
+    }
+
+    /**
+     * Moves the samples in a piece of the arena to a new piece and frees the old one
+     * @param allocation The piece
+     * @param data The samples in the piece, up to their position
+     * @param size The size of the new piece in bytes
+     * @return The new piece
+     */
+    private SampleArena.Allocation moveTo(SampleArena.Allocation allocation, ShortBuffer data, int size) {
+        SampleArena.Allocation moved = allocate(size);
+        data.flip();
+        moved.getBuffer().asShortBuffer().put(data);
+        arena.free(allocation);
+        return moved;
+    }
+
+    /**
+     * Reserves a piece of the arena. If the arena would go over its budget the least recently
+     * played samples are evicted first
+     * @param size The size in bytes
+     * @return The piece
+     */
+    private SampleArena.Allocation allocate(int size) {
+        evict(maxArenaBytes - size);
+        return arena.allocate(size);
+    }
+
+    /**
+     * Evicts the least recently played samples that are held in the arena, until the arena fits
+     * within a size. Evicted samples are decoded again, or memory mapped from the disk cache, the
+     * next time they are played
+     * @param maxSize The largest number of bytes the arena may hold
+     */
+    private void evict(long maxSize) {
+        synchronized (samples) {
+            while (arena.getAllocatedBytes() > maxSize) {
+                int oldest = -1;
+                for (int i = 0; i < samples.size(); i++) {
+                    ResidentSample sample = samples.valueAt(i);
+                    if (sample.allocation != null
+                            && (oldest < 0 || sample.lastUsed < samples.valueAt(oldest).lastUsed)) {
+                        oldest = i;
+                    }
+                }
+                if (oldest < 0) {
+                    // Only the first parts of the streamed clips and the clips being decoded are left
+                    return;
+                }
+                ResidentSample evicted = samples.valueAt(oldest);
+                samples.removeAt(oldest);
+                // The voices playing the sample must stop before its memory is handed out again
+                mixerThread.stop(evicted.sample);
+                evicted.free();
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Gets the size of a sample that is kept in memory
+     * @param sample The sample
+     * @return The size in bytes
+     */
+    private static int getSizeInBytes(SampleSource sample) {
+        if (sample instanceof AdpcmSource) {
+            return ((AdpcmSource) sample).getSizeInBytes();
+        }
+        return ((ShortBufferSource) sample).getSizeInBytes();
+    }
+
+    /**
+     * Gets the number of streamed clips that are playing
+     * @return The number of streams
+     */
+    public int getStreamCount() {
+        synchronized (streamSlots) {
+            int count = 0;
+            for (StreamSlot slot : streamSlots) {
+                if (slot != null && !slot.isIdle()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Starts playing a decoded sample on a free voice
+     * @param sample The decoded sample
+     * @param volume The volume, ranging from 0.0 to 1.0
+     * @param tapTime The System.nanoTime() when the play was requested
+     */
+    private void trigger(SampleSource sample, float volume, long tapTime) {
+        mixerThread.play(sample, volume, tapTime);
+        LatencyTracker.record(LatencyTracker.STAGE_PLAY_RETURNED, tapTime);
+    }
+
+    /**
+     * Starts playing a long clip from its first part, and decoding the rest of it into the ring
+     * buffer of a stream slot. If all the slots are busy the oldest stream is taken over
+     * @param resourceId The ID of the sound resource
+     * @param head The first part of the clip
+     * @param volume The volume, ranging from 0.0 to 1.0
+     * @param tapTime The System.nanoTime() when the play was requested
+     */
+    private void stream(int resourceId, ShortBufferSource head, float volume, long tapTime) {
+        StreamSlot slot = null;
+        synchronized (streamSlots) {
+            for (int i = 0; i < streamSlots.length; i++) {
+                StreamSlot candidate = streamSlots[i];
+                if (candidate == null) {
+                    candidate = new StreamSlot(sampleRate * STREAM_BUFFER_MS / 1000);
+                    try {
+                        streamExecutor.execute(candidate);
+                    } catch (RejectedExecutionException ex) {
+                        // The engine has been released
+                        return;
+                    }
+                    streamSlots[i] = candidate;
+                }
+                if (candidate.isIdle()) {
+                    slot = candidate;
+                    break;
+                }
+                if (slot == null || candidate.startOrder < slot.startOrder) {
+                    slot = candidate;
+                }
+            }
+            slot.startOrder = streamCounter++;
+        }
+        slot.start(resourceId, head, volume, tapTime);
+    }
+
+    /**
+     * A decoded clip that is kept in memory, and the piece of the arena that holds it
+     */
+    private class ResidentSample {
+        /**
+         * The sample
+         */
+        final SampleSource sample;
+        /**
+         * The piece of the arena holding the sample, null if the sample is memory mapped
+         */
+        final SampleArena.Allocation allocation;
+        /**
+         * The memory the sample takes, in bytes
+         */
+        final int size;
+        /**
+         * The value of the usage counter when the sample was last played
+         */
+        long lastUsed;
+
+        /**
+         * Public constructor
+         * @param sample The sample
+         * @param allocation The piece of the arena holding the sample, null if it's memory mapped
+         */
+        public ResidentSample(SampleSource sample, SampleArena.Allocation allocation) {
+            this.sample = sample;
+            this.allocation = allocation;
+            size = getSizeInBytes(sample);
+        }
+
+        /**
+         * Gives the piece of the arena back. The sample must not be played afterwards
+         */
+        void free() {
+            if (allocation != null) {
+                arena.free(allocation);
+            }
+        }
+    }
+
+    /**
+     * A play that was requested before the sample was decoded
+     */
+    private static class PendingPlay {
+        /**
+         * The volume, ranging from 0.0 to 1.0
+         */
+        final float volume;
+        /**
+         * The System.nanoTime() when the play was requested
+         */
+        final long tapTime;
+
+        /**
+         * Public constructor
+         * @param volume The volume, ranging from 0.0 to 1.0
+         * @param tapTime The System.nanoTime() when the play was requested
+         */
+        public PendingPlay(float volume, long tapTime) {
+            this.volume = volume;
+            this.tapTime = tapTime;
+        }
+    }
+
+    /**
+     * Decodes a sound resource, or reads it from the disk cache, and plays it if it was requested
+     * while it was being decoded
+     */
+    private class DecodeTask implements Runnable {
+        /**
+         * The ID of the sound resource
+         */
+        final int resourceId;
+        /**
+         * Set by decode() when only the first part of the clip was decoded, for streaming
+         */
+        boolean streamed;
+
+        /**
+         * Public constructor
+         * @param resourceId The ID of the sound resource
+         */
+        public DecodeTask(int resourceId) {
+            this.resourceId = resourceId;
+        }
+
+        @Override
+        public void run() {
+            synchronized (samples) {
+                if (released) {
+                    // Queued before the engine was released, the arena is about to be cleared
+                    pendingPlays.remove(resourceId);
+                    return;
+                }
+            }
+            ResidentSample sample = null;
+            List<PendingPlay> plays;
+            try {
+                sample = decode();
+            } finally {
+                // The resource stops being pending even if decoding failed, so the next tap tries again
+                synchronized (samples) {
+                    plays = pendingPlays.get(resourceId);
+                    pendingPlays.remove(resourceId);
+                    if (sample != null) {
+                        sample.lastUsed = usageCounter++;
+                        (streamed ? streamHeads : samples).put(resourceId, sample);
+                    }
+                }
+            }
+            if (plays != null && sample != null) {
+                for (PendingPlay play : plays) {
+                    LatencyTracker.record(LatencyTracker.STAGE_LOADED, play.tapTime);
+                    if (streamed) {
+                        stream(resourceId, (ShortBufferSource) sample.sample, play.volume, play.tapTime);
+                    } else {
+                        trigger(sample.sample, play.volume, play.tapTime);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the clip from the disk cache or decodes it into the arena. Only the first part of
+         * a long clip is decoded
+         * @return The sample, or null if the clip could not be decoded
+         */
+        private ResidentSample decode() {
+            long durationUs = getCatalogDurationUs(resourceId);
+            // Long clips are streamed, they are never in the disk cache
+            PcmSample cached = (durationUs > STREAMING_THRESHOLD_US) ? null : diskCache.get(resourceId);
+            if (cached != null) {
+                return log(makeResident(cached, null), cached);
+            }
+            try {
+                PcmDecoder.Stream stream = decoder.open(context, resourceId);
+                try {
+                    if (durationUs < 0) {
+                        // The clip isn't in the catalog, so its container is the only source of its duration
+                        durationUs = stream.getDurationUs();
+                    }
+                    if (durationUs > STREAMING_THRESHOLD_US) {
+                        streamed = true;
+                        int headFrames = sampleRate * PRE_DECODE_MS / 1000;
+                        return decodeToArena(stream, headFrames, headFrames);
+                    }
+                    // A little extra room for the rounding of the sample rate conversion
+                    int expectedFrames = (int) (durationUs * sampleRate / 1000000L) + sampleRate / 10;
+                    ResidentSample decoded = decodeToArena(stream, Math.max(expectedFrames, sampleRate), Integer.MAX_VALUE);
+                    PcmSample pcm = (PcmSample) decoded.sample;
+                    PcmSample mapped = diskCache.put(resourceId, pcm);
+                    if (mapped == pcm) {
+                        // The cache file could not be written, the sample stays in the arena
+                        return log(makeResident(pcm, decoded.allocation), pcm);
+                    }
+                    // The decoded copy was only needed for writing the cache file
+                    decoded.free();
+                    return log(makeResident(mapped, null), mapped);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, "Could not decode sound resource " + resourceId, ex);
+                return null;
+            }
+        }
+
+        /**
+         * Logs how much memory a sample takes
+         * @param sample The sample that is kept
+         * @param pcm The sample as stereo PCM
+         * @return The sample that is kept
+         */
+        private ResidentSample log(ResidentSample sample, PcmSample pcm) {
+            Log.d(TAG, "Sound resource " + resourceId + " takes " + sample.size + " bytes as "
+                    + sample.sample.getClass().getSimpleName() + ", " + pcm.getSizeInBytes()
+                    + " bytes as stereo PCM, " + arena);
+            return sample;
+        }
+    }
+
+    /**
+     * A ring buffer and the thread that decodes long clips into it. The slot plays one clip at a
+     * time, a clip that is started while another one is playing takes the slot over
+     */
+    private class StreamSlot implements Runnable {
+        /**
+         * The source the clips are played from, reused for every clip
+         */
+        final RingBufferSource source;
+        /**
+         * The order the current stream was started in, guarded by streamSlots
+         */
+        long startOrder;
+        /**
+         * Set when a clip has been started and the decoding thread hasn't picked it up yet
+         */
+        private boolean pending;
+        /**
+         * The ID of the sound resource of the started clip
+         */
+        private int resourceId;
+        /**
+         * The first part of the started clip
+         */
+        private ShortBufferSource head;
+        /**
+         * The volume of the started clip, ranging from 0.0 to 1.0
+         */
+        private float volume;
+        /**
+         * The System.nanoTime() when the started clip was requested
+         */
+        private long tapTime;
+
+        /**
+         * Public constructor
+         * @param capacityFrames The number of frames the ring buffer holds
+         */
+        public StreamSlot(int capacityFrames) {
+            source = new RingBufferSource(capacityFrames);
+        }
+
+        /**
+         * Checks whether the slot is free, which it is once the voice of its last clip has ended
+         * @return True if nothing is played through the slot
+         */
+        public synchronized boolean isIdle() {
+            return !pending && source.isClosed();
+        }
+
+        /**
+         * Starts a clip on the slot. The clip that is playing, if any, is stopped
+         * @param resourceId The ID of the sound resource
+         * @param head The first part of the clip
+         * @param volume The volume, ranging from 0.0 to 1.0
+         * @param tapTime The System.nanoTime() when the play was requested
+         */
+        public synchronized void start(int resourceId, ShortBufferSource head, float volume, long tapTime) {
+            this.resourceId = resourceId;
+            this.head = head;
+            this.volume = volume;
+            this.tapTime = tapTime;
+            pending = true;
+            // Stops the decoding of the clip that is being taken over
+            source.close();
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int clipResourceId;
+                    float clipVolume;
+                    long clipTapTime;
+                    synchronized (this) {
+                        while (!pending) {
+                            wait();
+                        }
+                        pending = false;
+                        clipResourceId = resourceId;
+                        clipVolume = volume;
+                        clipTapTime = tapTime;
+                        // The voice of a clip that was taken over must stop reading before the buffer is reused
+                        mixerThread.stop(source);
+                        source.reset(head);
+                        head = null;
+                    }
+                    trigger(source, clipVolume, clipTapTime);
+                    decode(clipResourceId);
+                }
+            } catch (InterruptedException ex) {
+                // The engine has been released
+            }
+        }
+
+        /**
+         * Decodes the rest of a clip into the ring buffer while it plays
+         * @param resourceId The ID of the sound resource
+         * @throws InterruptedException If the thread was interrupted while waiting for room
+         */
+        private void decode(int resourceId) throws InterruptedException {
+            PcmDecoder.Stream stream = null;
+            try {
+                stream = decoder.open(context, resourceId);
+                // The first part is played from the head, skip it
+                int skipFrames = source.getHeadFrames();
+                int frames;
+                while ((frames = stream.read()) >= 0) {
+                    int skipped = Math.min(frames, skipFrames);
+                    skipFrames -= skipped;
+                    if (!writeFully(stream.getOutput(), skipped, frames - skipped)) {
+                        return;
+                    }
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, "Could not stream sound resource " + resourceId, ex);
+            } finally {
+                // The voice ends when it has played what has been written
+                source.finish();
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+        }
+
+        /**
+         * Writes frames to the ring buffer, waiting for room as the clip plays
+         * @param samples The interleaved stereo samples
+         * @param offsetFrames The first frame to write
+         * @param frames The number of frames to write
+         * @return False if the clip is no longer played and decoding should stop
+         * @throws InterruptedException If the thread was interrupted while waiting
+         */
+        private boolean writeFully(short[] samples, int offsetFrames, int frames) throws InterruptedException {
+            while (frames > 0) {
+                // The audio thread wakes us up when it has made room, the mixer when the voice has ended
+                if (!source.awaitFreeFrames(frames)) {
+                    return false;
+                }
+                int written = source.write(samples, offsetFrames * 2, frames);
+                offsetFrames += written;
+                frames -= written;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The high priority thread that mixes the voices and streams them to the AudioTrack
+     */
+    private class MixerThread extends Thread implements Mixer.OnVoiceEndedListener {
+        /**
+         * The output sample rate
+         */
+        private final int sampleRate;
+        /**
+         * Set to false when the thread should stop
+         */
+        private volatile boolean running = true;
+        /**
+         * The size of the AudioTrack buffer in bytes
+         */
+        private final int bufferSize;
+        /**
+         * The number of frames mixed at a time
+         */
+        private final int frames;
+        /**
+         * The mixer. It exists before the AudioTrack does, so the voices started before the
+         * thread gets going are held by it and start with the first block
+         */
+        private final Mixer mixer;
+        /**
+         * The tap times of the voices that were started since the last block was mixed
+         */
+        private final long[] startedTapTimes = new long[MAX_VOICES];
+        /**
+         * The number of voices that were started since the last block was mixed
+         */
+        private int startedCount;
+        /**
+         * Set when no AudioTrack could be played, after which the plays are ignored
+         */
+        private boolean failed;
+
+        /**
+         * Public constructor
+         * @param sampleRate The output sample rate
+         */
+        public MixerThread(int sampleRate) {
+            super("AudioTrackEngine");
+            this.sampleRate = sampleRate;
+            int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+                    AudioFormat.ENCODING_PCM_16BIT);
+            if (minBufferSize <= 0) {
+                // ERROR or ERROR_BAD_VALUE, the track may still work with a buffer of a usual size
+                Log.w(TAG, "No minimum buffer size for " + sampleRate + " Hz (" + minBufferSize + "), using the default");
+                minBufferSize = sampleRate * DEFAULT_BUFFER_MS / 1000 * 4;
+            }
+            bufferSize = minBufferSize;
+            // Write half of the buffer at a time so there's always one block queued while we mix the next
+            frames = Math.max(bufferSize / 4 / 2, 64);
+            mixer = new Mixer(MAX_VOICES, frames);
+            mixer.setOnVoiceEndedListener(this);
+        }
+
+        /**
+         * Starts playing a decoded sample on the mixer. A play that comes before the AudioTrack has
+         * been created is held by the mixer and starts with the first block
+         * @param sample The decoded sample
+         * @param volume The volume, ranging from 0.0 to 1.0
+         * @param tapTime The System.nanoTime() when the play was requested
+         */
+        public synchronized void play(SampleSource sample, float volume, long tapTime) {
+            if (failed) {
+                return;
+            }
+            mixer.play(sample, volume, 0f);
+            if (startedCount < startedTapTimes.length) {
+                startedTapTimes[startedCount++] = tapTime;
+            }
+        }
+
+        /**
+         * Stops the voices that play a source
+         * @param source The sample source
+         */
+        public synchronized void stop(SampleSource source) {
+            mixer.stop(source);
+        }
+
+        @Override
+        public void onVoiceEnded(SampleSource source) {
+            if (source instanceof RingBufferSource) {
+                // Nobody plays the stream any more, so its decoder stops and its slot becomes free
+                ((RingBufferSource) source).close();
+            }
+        }
+
+        /**
+         * Mixes the next block of the active voices
+         * @param output The buffer for the interleaved stereo samples
+         * @param frames The number of frames to mix
+         * @param tapTimes Receives the tap times of the voices that start in this block
+         * @return The number of voices that start in this block
+         */
+        private synchronized int render(short[] output, int frames, long[] tapTimes) {
+            mixer.render(output, frames);
+            int count = startedCount;
+            System.arraycopy(startedTapTimes, 0, tapTimes, 0, count);
+            startedCount = 0;
+            return count;
+        }
+
+        /**
+         * Stops the thread
+         */
+        public void quit() {
+            running = false;
+            interrupt();
+        }
+
+        /**
+         * Stops the voices and ignores the plays from now on, after the AudioTrack has failed
+         */
+        private synchronized void fail() {
+            failed = true;
+            startedCount = 0;
+            mixer.stopAll();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            short[] output = new short[frames * 2];
+            long[] tapTimes = new long[MAX_VOICES];
+            int failures = 0;
+            while (running) {
+                AudioTrack track = createTrack();
+                if (track != null && writeBlocks(track, output, tapTimes) > 0) {
+                    failures = 0;
+                }
+                if (!running) {
+                    break;
+                }
+                if (++failures >= MAX_TRACK_FAILURES) {
+                    Log.e(TAG, "The AudioTrack failed " + failures + " times, the sounds will not be played");
+                    fail();
+                    return;
+                }
+                try {
+                    // Give the audio system a moment, e.g. while the output device is changing
+                    Thread.sleep(TRACK_RETRY_DELAY_MS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                Log.w(TAG, "Creating the AudioTrack again");
+            }
+        }
+
+        /**
+         * Creates the AudioTrack the voices are streamed to
+         * @return The track, or null if it could not be created
+         */
+        private AudioTrack createTrack() {
+            AudioTrack track;
+            try {
+                track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+                        AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT, bufferSize,
+                        AudioTrack.MODE_STREAM);
+            } catch (IllegalArgumentException ex) {
+                Log.w(TAG, "The AudioTrack could not be created", ex);
+                return null;
+            }
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                Log.w(TAG, "The AudioTrack could not be initialized");
+                track.release();
+                return null;
+            }
+            return track;
+        }
+
+        /**
+         * Mixes the voices and writes them to an AudioTrack until the thread is stopped or the
+         * track fails. The track is released afterwards
+         * @param track The track
+         * @param output The buffer for the interleaved stereo samples
+         * @param tapTimes Receives the tap times of the voices that start in a block
+         * @return The number of blocks that were written
+         */
+        private int writeBlocks(AudioTrack track, short[] output, long[] tapTimes) {
+            int blocks = 0;
+            try {
+                track.play();
+                while (running) {
+                    int started = render(output, frames, tapTimes);
+                    int written = track.write(output, 0, output.length);
+                    if (written < 0) {
+                        Log.w(TAG, "Could not write to the AudioTrack (" + written + ")");
+                        break;
+                    }
+                    blocks++;
+                    for (int i = 0; i < started; i++) {
+                        LatencyTracker.record(LatencyTracker.STAGE_FIRST_BUFFER, tapTimes[i]);
+                    }
+                }
+                track.stop();
+            } catch (IllegalStateException ex) {
+                Log.w(TAG, "The AudioTrack could not be played", ex);
+            } finally {
+                track.release();
+            }
+            return blocks;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.hjortur.soundboard.audio;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * The PcmDecoder class decodes the compressed sound resources to PCM using the platform's
+ * MediaCodec decoders, either all at once or a part at a time
+ * @author Hjörtur Líndal Stefánsson
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class PcmDecoder {
+    /**
+     * How long we wait for the codec to hand us a buffer, in microseconds
+     */
+    private static final long TIMEOUT_US = 10000;
+
+    /**
+     * The sample rate the clips are converted to
+     */
+    private final int outputSampleRate;
+
+    /**
+     * Public constructor
+     * @param outputSampleRate The sample rate the clips are converted to
+     */
+    public PcmDecoder(int outputSampleRate) {
+        this.outputSampleRate = outputSampleRate;
+    }
+
+    /**
+     * Decodes a sound resource to 16-bit stereo PCM at the output sample rate
+     * @param context The context
+     * @param resourceId The ID of the sound resource
+     * @return The decoded sample
+     * @throws IOException If the resource could not be read or decoded
+     */
+    public PcmSample decode(Context context, int resourceId) throws IOException {
+        Stream stream = open(context, resourceId);
+        try {
+            return decode(stream, Integer.MAX_VALUE);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Decodes the next part of a stream to 16-bit stereo PCM at the output sample rate
+     * @param stream The stream
+     * @param maxFrames The largest number of frames to decode, Integer.MAX_VALUE decodes the rest
+     *                  of the stream
+     * @return The decoded sample
+     * @throws IOException If the stream could not be decoded
+     */
+    public PcmSample decode(Stream stream, int maxFrames) throws IOException {
+        long estimatedFrames = stream.getDurationUs() * outputSampleRate / 1000000L;
+        ShortArrayBuilder output = new ShortArrayBuilder((int) Math.min(estimatedFrames, maxFrames) * 2);
+        int frames;
+        while (output.length < (long) maxFrames * 2 && (frames = stream.read()) >= 0) {
+            output.append(stream.getOutput(), 0, (int) Math.min(frames * 2, (long) maxFrames * 2 - output.length));
+        }
+        return new PcmSample(output.data, output.length / 2);
+    }
+
+    /**
+     * Decodes a stream to 16-bit stereo PCM at the output sample rate into a buffer, e.g. one
+     * outside of the Java heap, until the buffer is full or the stream has ended. The frames that
+     * don't fit are kept, so decoding can carry on into another buffer
+     * @param stream The stream
+     * @param target The buffer the interleaved stereo samples are written to, from its position
+     * @return The number of frames that were written
+     * @throws IOException If the stream could not be decoded
+     */
+    public int decode(Stream stream, ShortBuffer target) throws IOException {
+        int written = 0;
+        while (target.remaining() >= 2) {
+            if (stream.outputPosition == stream.outputFrames) {
+                if (stream.read() < 0) {
+                    break;
+                }
+                continue;
+            }
+            int count = Math.min(stream.outputFrames - stream.outputPosition, target.remaining() / 2);
+            target.put(stream.output, stream.outputPosition * 2, count * 2);
+            stream.outputPosition += count;
+            written += count;
+        }
+        return written;
+    }
+
+    /**
+     * Opens a sound resource for decoding it a part at a time
+     * @param context The context
+     * @param resourceId The ID of the sound resource
+     * @return The stream, which must be closed
+     * @throws IOException If the resource could not be opened
+     */
+    public Stream open(Context context, int resourceId) throws IOException {
+        AssetFileDescriptor descriptor = context.getResources().openRawResourceFd(resourceId);
+        if (descriptor == null) {
+            throw new IOException("Could not open the sound resource");
+        }
+        return new Stream(descriptor);
+    }
+
+    /**
+     * Selects the first audio track of the media
+     * @param extractor The MediaExtractor
+     * @return The format of the audio track
+     * @throws IOException If the media contains no audio
+     */
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) throws IOException {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException("The sound resource contains no audio");
+    }
+
+    /**
+     * A growable array of shorts
+     */
+    private static class ShortArrayBuilder {
+        /**
+         * The samples
+         */
+        short[] data;
+        /**
+         * The number of samples that have been appended
+         */
+        int length;
+
+        /**
+         * Public constructor
+         * @param capacity The initial capacity
+         */
+        public ShortArrayBuilder(int capacity) {
+            data = new short[Math.max(capacity, 1024)];
+        }
+
+        /**
+         * Appends samples from an array
+         * @param samples The array
+         * @param offset The first sample to append
+         * @param count The number of samples to append
+         */
+        void append(short[] samples, int offset, int count) {
+            if (length + count > data.length) {
+                short[] grown = new short[Math.max(data.length * 2, length + count)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+            System.arraycopy(samples, offset, data, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * A sound resource that is decoded a part at a time, e.g. while it's being played. Each part is
+     * converted to stereo at the output sample rate as it's decoded, so decoding a clip in parts
+     * gives exactly the same samples as decoding it at once
+     */
+    public class Stream implements Closeable {
+        /**
+         * The sound resource
+         */
+        private final AssetFileDescriptor descriptor;
+        /**
+         * Reads the compressed audio from the resource
+         */
+        private final MediaExtractor extractor;
+        /**
+         * The decoder, null until it has been created
+         */
+        private MediaCodec codec;
+        /**
+         * The input buffers of the decoder
+         */
+        private ByteBuffer[] inputBuffers;
+        /**
+         * The output buffers of the decoder
+         */
+        private ByteBuffer[] outputBuffers;
+        /**
+         * Describes the last output buffer
+         */
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        /**
+         * The duration of the clip in microseconds, 0 if it isn't known
+         */
+        private final long durationUs;
+        /**
+         * The sample rate of the decoded audio
+         */
+        private int sampleRate;
+        /**
+         * The number of channels of the decoded audio
+         */
+        private int channelCount;
+        /**
+         * Set when all of the compressed audio has been queued
+         */
+        private boolean inputDone;
+        /**
+         * Set when all of the audio has been decoded
+         */
+        private boolean outputDone;
+        /**
+         * The decoded samples of the current part
+         */
+        private short[] input = new short[0];
+        /**
+         * The converted samples of the current part
+         */
+        private short[] output = new short[0];
+        /**
+         * The number of frames in the converted samples of the current part
+         */
+        private int outputFrames;
+        /**
+         * The number of frames of the current part that have been written to a buffer by decode()
+         */
+        private int outputPosition;
+        /**
+         * The position of the next output frame, in input frames from the start of the next part.
+         * It's -1 or more, where -1 stands for the last frame of the previous part
+         */
+        private double position;
+        /**
+         * The left sample of the last frame of the previous part
+         */
+        private short previousLeft;
+        /**
+         * The right sample of the last frame of the previous part
+         */
+        private short previousRight;
+
+        /**
+         * Public constructor
+         * @param descriptor The sound resource, which is closed with the stream
+         * @throws IOException If the resource could not be opened
+         */
+        Stream(AssetFileDescriptor descriptor) throws IOException {
+            this.descriptor = descriptor;
+            extractor = new MediaExtractor();
+            try {
+                extractor.setDataSource(descriptor.getFileDescriptor(), descriptor.getStartOffset(),
+                        descriptor.getLength());
+                MediaFormat format = selectAudioTrack(extractor);
+                sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+
+                codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+                codec.configure(format, null, null, 0);
+                codec.start();
+                inputBuffers = codec.getInputBuffers();
+                outputBuffers = codec.getOutputBuffers();
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            } catch (IllegalStateException ex) {
+                close();
+                throw new IOException("Could not decode the sound resource: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Gets the duration of the clip, as reported by the container
+         * @return The duration in microseconds, 0 if it isn't known
+         */
+        public long getDurationUs() {
+            return durationUs;
+        }
+
+        /**
+         * Decodes the next part of the clip. The converted samples are in getOutput() until the
+         * next part is decoded
+         * @return The number of stereo frames in the output, which may be 0 if the decoder
+         *         didn't have anything ready, or -1 when the end of the clip has been reached
+         * @throws IOException If the clip could not be decoded
+         */
+        public int read() throws IOException {
+            if (outputDone) {
+                return -1;
+            }
+            try {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    ByteBuffer buffer = outputBuffers[outputIndex];
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    ShortBuffer samples = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+                    int count = samples.remaining();
+                    if (input.length < count) {
+                        input = new short[count];
+                    }
+                    samples.get(input, 0, count);
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    outputFrames = convert(count / channelCount);
+                    outputPosition = 0;
+                    return outputFrames;
+                } else if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                }
+                return 0;
+            } catch (IllegalStateException ex) {
+                throw new IOException("Could not decode the sound resource: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Checks whether the whole clip has been decoded and written out
+         * @return True if there is nothing left to decode
+         */
+        public boolean isFinished() {
+            return outputDone && outputPosition == outputFrames;
+        }
+
+        /**
+         * Gets the converted samples of the last part that was decoded
+         * @return The interleaved stereo samples at the output sample rate
+         */
+        public short[] getOutput() {
+            return output;
+        }
+
+        /**
+         * Converts the decoded samples to stereo at the output sample rate, using linear
+         * interpolation when the sample rates don't match. The interpolation carries over from
+         * the previous part
+         * @param inputFrames The number of decoded frames
+         * @return The number of converted frames
+         */
+        private int convert(int inputFrames) {
+            if (inputFrames == 0) {
+                return 0;
+            }
+            int rightChannel = (channelCount > 1) ? 1 : 0;
+            if (sampleRate == outputSampleRate) {
+                ensureOutputCapacity(inputFrames);
+                for (int frame = 0; frame < inputFrames; frame++) {
+                    output[frame * 2] = input[frame * channelCount];
+                    output[frame * 2 + 1] = input[frame * channelCount + rightChannel];
+                }
+                return inputFrames;
+            }
+            double step = (double) sampleRate / outputSampleRate;
+            ensureOutputCapacity((int) ((inputFrames + 1) / step) + 1);
+            int outputFrames = 0;
+            // Each output frame lies between two input frames, stop when the second isn't decoded yet
+            while (position < inputFrames - 1) {
+                int index = (int) Math.floor(position);
+                double fraction = position - index;
+                for (int channel = 0; channel < 2; channel++) {
+                    int offset = (channel == 0) ? 0 : rightChannel;
+                    double first = (index < 0) ? (channel == 0 ? previousLeft : previousRight)
+                            : input[index * channelCount + offset];
+                    double second = input[(index + 1) * channelCount + offset];
+                    output[outputFrames * 2 + channel] = (short) (first + (second - first) * fraction);
+                }
+                outputFrames++;
+                position += step;
+            }
+            position -= inputFrames;
+            previousLeft = input[(inputFrames - 1) * channelCount];
+            previousRight = input[(inputFrames - 1) * channelCount + rightChannel];
+            return outputFrames;
+        }
+
+        /**
+         * Grows the output array if it can't hold a number of frames
+         * @param frames The number of stereo frames
+         */
+        private void ensureOutputCapacity(int frames) {
+            if (output.length < frames * 2) {
+                output = new short[frames * 2];
+            }
+        }
+
+        @Override
+        public void close() {
+            if (codec != null) {
+                codec.release();
+                codec = null;
+            }
+            extractor.release();
+            try {
+                descriptor.close();
+            } catch (IOException ex) {
+                // Nothing we can do about it, the resource is read only
+            }
+        }
+    }
+}
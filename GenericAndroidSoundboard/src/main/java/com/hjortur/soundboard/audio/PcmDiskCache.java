@@ -0,0 +1,255 @@
+package com.hjortur.soundboard.audio;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.hjortur.soundboard.utilities.PackageUtilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The PcmDiskCache class stores the decoded sound clips in the application's private storage so
+ * they only need to be decoded once. Cached clips are memory mapped when they are read back, so
+ * they are ready almost instantly and don't take up space on the Java heap.
+ * The cache is keyed by the version of the installed APK, so it's thrown away automatically
+ * whenever the application (and with it the sound resources) is updated.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class PcmDiskCache {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "PcmDiskCache";
+    /**
+     * The name of the directory in the cache directory that holds all the versions of the cache
+     */
+    private static final String CACHE_DIRECTORY = "pcm";
+    /**
+     * Identifies a cache file, "PCM1"
+     */
+    private static final int MAGIC = 0x50434d31;
+    /**
+     * The size of the header, the magic number and the frame count
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The number of samples that are written at a time
+     */
+    private static final int WRITE_CHUNK_SAMPLES = 32 * 1024;
+
+    /**
+     * The context used for reading the sound resources
+     */
+    private final Context context;
+    /**
+     * The directory holding all the versions of the cache
+     */
+    private final File root;
+    /**
+     * The directory holding the cache files for this version of the application
+     */
+    private final File directory;
+
+    /**
+     * Public constructor. Doesn't touch the disk, call prepare() on a background thread before the cache is used
+     * @param context The context
+     * @param sampleRate The sample rate of the decoded clips
+     */
+    public PcmDiskCache(Context context, int sampleRate) {
+        this.context = context.getApplicationContext();
+        root = new File(this.context.getCacheDir(), CACHE_DIRECTORY);
+        directory = new File(root, PackageUtilities.getVersionKey(this.context) + "_" + sampleRate);
+    }
+
+    /**
+     * Removes the cache files that were written by other versions of the application and creates
+     * the directory of this version. This is disk I/O, so it must not be called on the UI thread
+     */
+    public void prepare() {
+        File[] versions = root.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (!version.equals(directory)) {
+                    deleteRecursively(version);
+                }
+            }
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create the cache directory " + directory);
+        }
+    }
+
+    /**
+     * Reads a decoded clip from the cache
+     * @param resourceId The ID of the sound resource
+     * @return The memory mapped sample, or null if it hasn't been cached
+     */
+    public PcmSample get(int resourceId) {
+        File file = getFile(resourceId);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                // Too short to even hold the header, most likely from a write that didn't finish
+                Log.w(TAG, "Removing truncated cache file " + file);
+                file.delete();
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            int frameCount = buffer.getInt(4);
+            if (buffer.getInt(0) != MAGIC || size != HEADER_SIZE + (long) frameCount * 4) {
+                // A truncated or corrupt file, most likely from a write that didn't finish
+                Log.w(TAG, "Removing invalid cache file " + file);
+                file.delete();
+                return null;
+            }
+            buffer.position(HEADER_SIZE);
+            ShortBuffer data = buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+            return new PcmSample(data, frameCount);
+        } catch (IOException ex) {
+            Log.w(TAG, "Could not read cache file " + file, ex);
+            return null;
+        } finally {
+            // The mapping stays valid after the file has been closed
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Writes a decoded clip to the cache and returns the memory mapped copy of it
+     * @param resourceId The ID of the sound resource
+     * @param sample The decoded sample
+     * @return The memory mapped sample, or the sample that was passed in if it could not be written
+     */
+    public PcmSample put(int resourceId, PcmSample sample) {
+        File file = getFile(resourceId);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporaryFile);
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, WRITE_CHUNK_SAMPLES * 2))
+                    .order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC).putInt(sample.getFrameCount()).flip();
+            writeFully(channel, buffer);
+
+            ShortBuffer data = sample.getData().duplicate();
+            data.position(0).limit(sample.getFrameCount() * 2);
+            while (data.hasRemaining()) {
+                buffer.clear();
+                ShortBuffer chunk = buffer.asShortBuffer();
+                int count = Math.min(chunk.remaining(), data.remaining());
+                ShortBuffer slice = data.slice();
+                slice.limit(count);
+                chunk.put(slice);
+                data.position(data.position() + count);
+                buffer.limit(count * 2);
+                writeFully(channel, buffer);
+            }
+            outputStream.getFD().sync();
+        } catch (IOException ex) {
+            Log.w(TAG, "Could not write cache file " + file, ex);
+            closeQuietly(outputStream);
+            temporaryFile.delete();
+            return sample;
+        } finally {
+            closeQuietly(outputStream);
+        }
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return sample;
+        }
+        PcmSample mapped = get(resourceId);
+        return (mapped != null) ? mapped : sample;
+    }
+
+    /**
+     * Gets the cache file of a sound resource. The length of the resource is part of the name so
+     * a changed resource doesn't match an old file even if the version key stays the same
+     * @param resourceId The ID of the sound resource
+     * @return The cache file
+     */
+    private File getFile(int resourceId) {
+        return new File(directory, Integer.toHexString(resourceId) + "_" + getResourceLength(resourceId) + ".pcm");
+    }
+
+    /**
+     * Gets the length of a sound resource
+     * @param resourceId The ID of the sound resource
+     * @return The length in bytes, or -1 if it could not be read
+     */
+    private long getResourceLength(int resourceId) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getResources().openRawResourceFd(resourceId);
+            return (descriptor != null) ? descriptor.getLength() : -1;
+        } catch (Resources.NotFoundException ex) {
+            return -1;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException ex) {
+                    // The descriptor was only used for reading the length
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel
+     * @param channel The channel
+     * @param buffer The buffer
+     * @throws IOException If the write failed
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with everything in it
+     * @param file The file or directory
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Closes a file without throwing an exception
+     * @param closeable The file to close, can be null
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // Nothing we can do about it at this point
+            }
+        }
+    }
+}
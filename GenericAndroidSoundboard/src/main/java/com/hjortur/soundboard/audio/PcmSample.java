@@ -0,0 +1,37 @@
+package com.hjortur.soundboard.audio;
+
+import com.hjortur.soundboard.audio.mixer.ShortBufferSource;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A sound clip that has been decoded to 16-bit interleaved stereo PCM at the output sample rate
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class PcmSample extends ShortBufferSource {
+    /**
+     * Public constructor
+     * @param data The interleaved left and right samples
+     * @param frameCount The number of stereo frames in the clip
+     */
+    public PcmSample(short[] data, int frameCount) {
+        this(ShortBuffer.wrap(data), frameCount);
+    }
+
+    /**
+     * Public constructor
+     * @param data The interleaved left and right samples, e.g. from a memory mapped file
+     * @param frameCount The number of stereo frames in the clip
+     */
+    public PcmSample(ShortBuffer data, int frameCount) {
+        super(data, 2, frameCount);
+    }
+
+    /**
+     * Gets the size of the decoded clip
+     * @return The size in bytes
+     */
+    public int getSizeInBytes() {
+        return getFrameCount() * 4;
+    }
+}
@@ -0,0 +1,35 @@
+package com.hjortur.soundboard.audio;
+
+import com.hjortur.soundboard.catalog.SoundCatalog;
+
+/**
+ * The PlaybackEngine interface is implemented by the classes that are able to play the sound clips
+ * @author Hjörtur Líndal Stefánsson
+ */
+public interface PlaybackEngine {
+    /**
+     * Gives the engine the catalog of the sounds. The properties of the clips that were worked
+     * out when the application was built are used instead of probing the sound files
+     * @param catalog The catalog
+     */
+    void setCatalog(SoundCatalog catalog);
+
+    /**
+     * Starts preparing a sound resource in the background so it can be played right away later
+     * @param resourceId The ID of the sound resource
+     */
+    void preload(int resourceId);
+
+    /**
+     * Plays a sound resource. If it hasn't been prepared yet it is played as soon as it's ready
+     * @param resourceId The ID of the sound resource
+     * @param volume The volume, ranging from 0.0 to 1.0
+     * @param tapTime The System.nanoTime() when the play was requested, used for measuring latency
+     */
+    void play(int resourceId, float volume, long tapTime);
+
+    /**
+     * Stops all playback and releases the resources held by the engine
+     */
+    void release();
+}
@@ -0,0 +1,32 @@
+package com.hjortur.soundboard.audio;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.hjortur.soundboard.R;
+
+/**
+ * Creates the playback engine that has been selected for the soundboard
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class PlaybackEngines {
+    /**
+     * Private constructor, this class only contains static methods
+     */
+    private PlaybackEngines() {
+    }
+
+    /**
+     * Creates the playback engine. The low latency AudioTrack engine is used if it has been
+     * enabled in the configuration and the device supports it, otherwise the SoundPool is used
+     * @param context The context
+     * @return The playback engine
+     */
+    public static PlaybackEngine create(Context context) {
+        if (context.getResources().getBoolean(R.bool.use_low_latency_engine)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new AudioTrackEngine(context);
+        }
+        return new SoundPoolEngine(context);
+    }
+}
@@ -0,0 +1,536 @@
+package com.hjortur.soundboard.audio;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.SparseArray;
+
+import com.hjortur.soundboard.catalog.ClipInfo;
+import com.hjortur.soundboard.catalog.SoundCatalog;
+import com.hjortur.soundboard.stats.LatencyTracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SampleCache class keeps track of the samples that have been loaded into the SoundPool.
+ * Every sound resource is only loaded (and decoded) once and the same sample is shared between
+ * all the buttons that use it, so a tap only needs a single play() call.
+ * The decoded samples are kept within a memory budget. When the budget is exceeded the least
+ * recently used samples are unloaded from the SoundPool and loaded again the next time they are played.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SampleCache implements SoundPool.OnLoadCompleteListener {
+    /**
+     * The maximum number of sounds that can be played at the same time
+     */
+    private static final int MAX_STREAMS = 10;
+    /**
+     * The approximate ratio between the size of a decoded sample and the compressed sound file,
+     * used for the clips that aren't in the catalog. A 128 kbps MP3 decodes to 1411 kbps of
+     * 44.1 kHz 16-bit stereo PCM
+     */
+    private static final int DECODED_SIZE_RATIO = 11;
+    /**
+     * The part of the application's memory class that is used for samples by default
+     */
+    private static final int DEFAULT_MEMORY_FRACTION = 8;
+
+    /**
+     * Interface definition for a callback that is invoked when a sample has finished loading
+     */
+    public interface OnSampleLoadedListener {
+        /**
+         * Called when the sample has been loaded, or right away if it was already loaded
+         * @param resourceId The ID of the sound resource
+         * @param soundId The sound ID of the sample in the SoundPool
+         * @param success True if the sample was loaded, false if it could not be decoded
+         */
+        void onSampleLoaded(int resourceId, int soundId, boolean success);
+    }
+
+    /**
+     * The context used for loading the sound resources
+     */
+    private final Context context;
+    /**
+     * The SoundPool that holds the decoded samples
+     */
+    private final SoundPool soundPool;
+    /**
+     * The samples keyed by the sound resource ID
+     */
+    private final SparseArray<Sample> samplesByResource = new SparseArray<Sample>();
+    /**
+     * The samples keyed by the sound ID we got from the SoundPool
+     */
+    private final SparseArray<Sample> samplesBySoundId = new SparseArray<Sample>();
+    /**
+     * The catalog holding the properties of the clips, null until it has been read
+     */
+    private volatile SoundCatalog catalog;
+    /**
+     * The most recently used sample. The samples form a doubly linked list in the order they were used
+     */
+    private Sample mostRecent;
+    /**
+     * The least recently used sample
+     */
+    private Sample leastRecent;
+    /**
+     * The maximum size of all the decoded samples in bytes
+     */
+    private final long maxDecodedBytes;
+    /**
+     * The estimated size of all the decoded samples in bytes
+     */
+    private long decodedBytes;
+    /**
+     * The number of times a sample was requested that was already loaded or loading
+     */
+    private int hitCount;
+    /**
+     * The number of times a sample was requested that needed to be loaded
+     */
+    private int missCount;
+    /**
+     * The number of samples that have been unloaded to stay within the memory budget
+     */
+    private int evictionCount;
+
+    /**
+     * Public constructor. Uses a part of the application's memory class as the memory budget
+     * @param context The context
+     */
+    public SampleCache(Context context) {
+        this(context, getDefaultMaxDecodedBytes(context));
+    }
+
+    /**
+     * Public constructor
+     * @param context The context
+     * @param maxDecodedBytes The maximum size of all the decoded samples in bytes
+     */
+    public SampleCache(Context context, long maxDecodedBytes) {
+        this.context = context.getApplicationContext();
+        this.maxDecodedBytes = maxDecodedBytes;
+        soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+        soundPool.setOnLoadCompleteListener(this);
+    }
+
+    /**
+     * Sets the catalog whose clip properties are used for estimating the size of the decoded samples
+     * @param catalog The catalog
+     */
+    public void setCatalog(SoundCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Starts loading a sound resource in the background if it hasn't been loaded already and
+     * it fits within the memory budget. Preloading never unloads other samples.
+     * The SoundPool decodes the sample on its own thread so this returns right away.
+     * @param resourceId The ID of the sound resource
+     * @return The sound ID of the sample, or 0 if there was no room for it
+     */
+    public int preload(int resourceId) {
+        // Estimating the size may read the sound file, so it's done before taking the lock
+        long estimatedSize = estimateDecodedSize(resourceId);
+        synchronized (this) {
+            if (samplesByResource.get(resourceId) == null && decodedBytes + estimatedSize > maxDecodedBytes) {
+                return 0;
+            }
+        }
+        return load(resourceId, estimatedSize, null);
+    }
+
+    /**
+     * Loads a sound resource and notifies the listener when it's ready. Several requests for the
+     * same resource share a single load, and the listener is called right away if the sample has
+     * already been loaded.
+     * @param resourceId The ID of the sound resource
+     * @param listener The listener that is notified when the sample is ready, can be null
+     * @return The sound ID of the sample
+     */
+    public int load(int resourceId, OnSampleLoadedListener listener) {
+        return load(resourceId, -1, listener);
+    }
+
+    /**
+     * Loads a sound resource and notifies the listener when it's ready
+     * @param resourceId The ID of the sound resource
+     * @param estimatedSize The estimated size of the decoded sample in bytes, or -1 if it hasn't
+     *                      been estimated yet
+     * @param listener The listener that is notified when the sample is ready, can be null
+     * @return The sound ID of the sample
+     */
+    private int load(int resourceId, long estimatedSize, OnSampleLoadedListener listener) {
+        Sample sample;
+        synchronized (this) {
+            sample = samplesByResource.get(resourceId);
+            boolean loadNeeded = sample == null || sample.state == Sample.STATE_FAILED;
+            if (loadNeeded && estimatedSize < 0) {
+                sample = null;
+            } else {
+                if (loadNeeded) {
+                    missCount++;
+                    if (sample != null) {
+                        remove(sample);
+                    }
+                    sample = new Sample(resourceId, estimatedSize);
+                    trimToSize(maxDecodedBytes - sample.decodedBytes);
+                    sample.soundId = soundPool.load(context, resourceId, 1);
+                    samplesByResource.put(resourceId, sample);
+                    samplesBySoundId.put(sample.soundId, sample);
+                    decodedBytes += sample.decodedBytes;
+                } else {
+                    hitCount++;
+                }
+                moveToFront(sample);
+                if (sample.state == Sample.STATE_LOADING) {
+                    if (listener != null) {
+                        sample.listeners.add(listener);
+                    }
+                    return sample.soundId;
+                }
+            }
+        }
+        if (sample == null) {
+            // The sample has to be loaded, its size is estimated outside the lock before trying again
+            return load(resourceId, estimateDecodedSize(resourceId), listener);
+        }
+        // The sample is already loaded so there is nothing to wait for
+        if (listener != null) {
+            listener.onSampleLoaded(resourceId, sample.soundId, true);
+        }
+        return sample.soundId;
+    }
+
+    /**
+     * Plays a sound resource. If the sample is still loading the request is queued and played as
+     * soon as it's ready, so taps on several buttons in a row are never lost.
+     * @param resourceId The ID of the sound resource
+     * @param volume The volume, ranging from 0.0 to 1.0
+     * @param tapTime The System.nanoTime() when the play was requested, used for measuring latency
+     */
+    public void play(int resourceId, float volume, long tapTime) {
+        synchronized (this) {
+            Sample sample = samplesByResource.get(resourceId);
+            if (sample != null && sample.state != Sample.STATE_FAILED) {
+                // The tap is counted once here, whether the sample is ready or still loading
+                hitCount++;
+                moveToFront(sample);
+                if (sample.state == Sample.STATE_LOADING) {
+                    sample.listeners.add(new PlayRequest(volume, tapTime));
+                    return;
+                }
+                soundPool.play(sample.soundId, volume, volume, 1, 0, 1f);
+                LatencyTracker.record(LatencyTracker.STAGE_PLAY_RETURNED, tapTime);
+                return;
+            }
+        }
+        load(resourceId, new PlayRequest(volume, tapTime));
+    }
+
+    /**
+     * Checks whether a sound resource is ready to be played
+     * @param resourceId The ID of the sound resource
+     * @return True if the sample has been loaded
+     */
+    public synchronized boolean isLoaded(int resourceId) {
+        Sample sample = samplesByResource.get(resourceId);
+        return sample != null && sample.state == Sample.STATE_READY;
+    }
+
+    /**
+     * Releases the SoundPool and all the samples it holds
+     */
+    public synchronized void release() {
+        soundPool.release();
+        samplesByResource.clear();
+        samplesBySoundId.clear();
+        mostRecent = null;
+        leastRecent = null;
+        decodedBytes = 0;
+    }
+
+    /**
+     * Unloads the least recently used samples until the decoded samples fit within the given size.
+     * Samples that are still loading are never unloaded.
+     * @param maxSize The maximum size of all the decoded samples in bytes
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Sample sample = leastRecent;
+        while (sample != null && decodedBytes > maxSize) {
+            Sample previous = sample.previous;
+            if (sample.state != Sample.STATE_LOADING) {
+                soundPool.unload(sample.soundId);
+                remove(sample);
+                evictionCount++;
+            }
+            sample = previous;
+        }
+    }
+
+    /**
+     * Gets the estimated size of all the decoded samples
+     * @return The size in bytes
+     */
+    public synchronized long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * Gets the memory budget for the decoded samples
+     * @return The size in bytes
+     */
+    public long getMaxDecodedBytes() {
+        return maxDecodedBytes;
+    }
+
+    /**
+     * Gets the number of times a sample was requested that was already loaded or loading
+     * @return The hit count
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of times a sample was requested that needed to be loaded
+     * @return The miss count
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of samples that have been unloaded to stay within the memory budget
+     * @return The eviction count
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SampleCache[decodedBytes=%d,maxDecodedBytes=%d,hits=%d,misses=%d,evictions=%d]",
+                decodedBytes, maxDecodedBytes, hitCount, missCount, evictionCount);
+    }
+
+    /**
+     * Moves a sample to the front of the usage list
+     * @param sample The sample that was used
+     */
+    private void moveToFront(Sample sample) {
+        if (mostRecent == sample) {
+            return;
+        }
+        unlink(sample);
+        sample.next = mostRecent;
+        if (mostRecent != null) {
+            mostRecent.previous = sample;
+        }
+        mostRecent = sample;
+        if (leastRecent == null) {
+            leastRecent = sample;
+        }
+    }
+
+    /**
+     * Removes a sample from the usage list
+     * @param sample The sample to remove
+     */
+    private void unlink(Sample sample) {
+        if (sample.previous != null) {
+            sample.previous.next = sample.next;
+        } else if (mostRecent == sample) {
+            mostRecent = sample.next;
+        }
+        if (sample.next != null) {
+            sample.next.previous = sample.previous;
+        } else if (leastRecent == sample) {
+            leastRecent = sample.previous;
+        }
+        sample.previous = null;
+        sample.next = null;
+    }
+
+    /**
+     * Forgets about a sample, e.g. after it has been unloaded from the SoundPool
+     * @param sample The sample to remove
+     */
+    private void remove(Sample sample) {
+        unlink(sample);
+        samplesByResource.remove(sample.resourceId);
+        samplesBySoundId.remove(sample.soundId);
+        decodedBytes -= sample.decodedBytes;
+    }
+
+    /**
+     * Estimates how much memory a sound resource takes up once it has been decoded. The properties
+     * of the clip in the catalog are used when they are known, otherwise the size of the file
+     * @param resourceId The ID of the sound resource
+     * @return The estimated size in bytes
+     */
+    private long estimateDecodedSize(int resourceId) {
+        SoundCatalog catalog = this.catalog;
+        ClipInfo clipInfo = (catalog != null) ? catalog.getClipInfo(resourceId) : null;
+        if (clipInfo != null && clipInfo.getDecodedSize() > 0) {
+            // The SoundPool keeps the clip at its own sample rate and channel count
+            return clipInfo.getDecodedSize();
+        }
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getResources().openRawResourceFd(resourceId);
+            return (descriptor != null) ? descriptor.getLength() * DECODED_SIZE_RATIO : 0;
+        } catch (Resources.NotFoundException ex) {
+            return 0;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException ex) {
+                    // Nothing we can do about it, the descriptor was only used for reading the length
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the default memory budget for the decoded samples
+     * @param context The context
+     * @return The size in bytes
+     */
+    static long getDefaultMaxDecodedBytes(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = (activityManager != null) ? activityManager.getMemoryClass() : 16;
+        return (long) memoryClass * 1024 * 1024 / DEFAULT_MEMORY_FRACTION;
+    }
+
+    /**
+     * Called by the SoundPool when a sample has finished loading
+     * @param soundPool The SoundPool
+     * @param sampleId The sound ID of the sample
+     * @param status The status of the load operation (0 = success)
+     */
+    @Override
+    public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+        Sample sample;
+        List<OnSampleLoadedListener> listeners;
+        synchronized (this) {
+            sample = samplesBySoundId.get(sampleId);
+            if (sample == null) {
+                return;
+            }
+            sample.state = (status == 0) ? Sample.STATE_READY : Sample.STATE_FAILED;
+            listeners = new ArrayList<OnSampleLoadedListener>(sample.listeners);
+            sample.listeners.clear();
+        }
+        // Notify the listeners outside the lock so they are free to call back into the cache
+        for (OnSampleLoadedListener listener : listeners) {
+            listener.onSampleLoaded(sample.resourceId, sampleId, status == 0);
+        }
+    }
+
+    /**
+     * A request to play a sample once it has finished loading
+     */
+    private class PlayRequest implements OnSampleLoadedListener {
+        /**
+         * The volume, ranging from 0.0 to 1.0
+         */
+        final float volume;
+        /**
+         * The System.nanoTime() when the play was requested
+         */
+        final long tapTime;
+
+        /**
+         * Public constructor
+         * @param volume The volume, ranging from 0.0 to 1.0
+         * @param tapTime The System.nanoTime() when the play was requested
+         */
+        public PlayRequest(float volume, long tapTime) {
+            this.volume = volume;
+            this.tapTime = tapTime;
+        }
+
+        @Override
+        public void onSampleLoaded(int resourceId, int soundId, boolean success) {
+            if (success) {
+                LatencyTracker.record(LatencyTracker.STAGE_LOADED, tapTime);
+                synchronized (SampleCache.this) {
+                    // The sample is being played, so it's the most recently used one
+                    Sample sample = samplesBySoundId.get(soundId);
+                    if (sample != null) {
+                        moveToFront(sample);
+                    }
+                }
+                soundPool.play(soundId, volume, volume, 1, 0, 1f);
+                LatencyTracker.record(LatencyTracker.STAGE_PLAY_RETURNED, tapTime);
+            }
+        }
+    }
+
+    /**
+     * The state of a single sample in the SoundPool
+     */
+    private static class Sample {
+        /**
+         * The sample is being decoded
+         */
+        static final int STATE_LOADING = 0;
+        /**
+         * The sample is ready to be played
+         */
+        static final int STATE_READY = 1;
+        /**
+         * The sample could not be loaded
+         */
+        static final int STATE_FAILED = 2;
+
+        /**
+         * The ID of the sound resource
+         */
+        final int resourceId;
+        /**
+         * The sound ID we got from the SoundPool
+         */
+        int soundId;
+        /**
+         * The estimated size of the decoded sample in bytes
+         */
+        final long decodedBytes;
+        /**
+         * The current state of the sample
+         */
+        int state = STATE_LOADING;
+        /**
+         * The sample that was used right before this one
+         */
+        Sample previous;
+        /**
+         * The sample that was used right after this one
+         */
+        Sample next;
+        /**
+         * The listeners waiting for the sample to finish loading
+         */
+        final List<OnSampleLoadedListener> listeners = new ArrayList<OnSampleLoadedListener>();
+
+        /**
+         * Public constructor
+         * @param resourceId The ID of the sound resource
+         * @param decodedBytes The estimated size of the decoded sample in bytes
+         */
+        public Sample(int resourceId, long decodedBytes) {
+            this.resourceId = resourceId;
+            this.decodedBytes = decodedBytes;
+        }
+    }
+}
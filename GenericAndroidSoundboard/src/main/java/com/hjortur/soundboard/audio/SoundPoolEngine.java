@@ -0,0 +1,52 @@
+package com.hjortur.soundboard.audio;
+
+import android.content.Context;
+
+import com.hjortur.soundboard.catalog.SoundCatalog;
+
+/**
+ * A playback engine that plays the sound clips using the SoundPool, through the SampleCache
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SoundPoolEngine implements PlaybackEngine {
+    /**
+     * The cache holding the samples that have been loaded into the SoundPool
+     */
+    private final SampleCache sampleCache;
+
+    /**
+     * Public constructor
+     * @param context The context
+     */
+    public SoundPoolEngine(Context context) {
+        sampleCache = new SampleCache(context);
+    }
+
+    /**
+     * Gets the sample cache used by the engine
+     * @return The SampleCache instance
+     */
+    public SampleCache getSampleCache() {
+        return sampleCache;
+    }
+
+    @Override
+    public void setCatalog(SoundCatalog catalog) {
+        sampleCache.setCatalog(catalog);
+    }
+
+    @Override
+    public void preload(int resourceId) {
+        sampleCache.preload(resourceId);
+    }
+
+    @Override
+    public void play(int resourceId, float volume, long tapTime) {
+        sampleCache.play(resourceId, volume, tapTime);
+    }
+
+    @Override
+    public void release() {
+        sampleCache.release();
+    }
+}
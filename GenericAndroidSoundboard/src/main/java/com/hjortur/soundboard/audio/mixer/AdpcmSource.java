@@ -0,0 +1,230 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A sample source that holds IMA ADPCM, 4 bits per sample, which is a quarter of the size of
+ * 16-bit PCM. The samples are decoded as they are read. The clip is encoded in blocks that each
+ * start with the state of the decoder, so reading can start at any block without decoding the
+ * clip from the beginning.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class AdpcmSource implements SampleSource {
+    /**
+     * The number of frames in a block
+     */
+    public static final int BLOCK_FRAMES = 256;
+    /**
+     * The scale used for converting 16-bit samples to floats
+     */
+    private static final float SCALE = 1f / 32768f;
+
+    /**
+     * The quantizer step sizes of IMA ADPCM
+     */
+    private static final short[] STEP_SIZES = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552,
+            1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484,
+            7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500, 20350, 22385,
+            24623, 27086, 29794, 32767
+    };
+    /**
+     * How the step index changes after each code
+     */
+    private static final byte[] INDEX_ADJUSTMENTS = {-1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8};
+
+    /**
+     * The 4-bit codes, two per byte, in the order of the interleaved samples
+     */
+    private final ByteBuffer codes;
+    /**
+     * The predicted sample at the start of each block, for each channel
+     */
+    private final short[] blockPredictors;
+    /**
+     * The step index at the start of each block, for each channel
+     */
+    private final byte[] blockStepIndexes;
+    /**
+     * The number of channels, 1 or 2
+     */
+    private final int channelCount;
+    /**
+     * The number of frames
+     */
+    private final int frameCount;
+
+    /**
+     * Private constructor, use encode()
+     * @param codes The 4-bit codes
+     * @param blockPredictors The predicted sample at the start of each block, for each channel
+     * @param blockStepIndexes The step index at the start of each block, for each channel
+     * @param channelCount The number of channels, 1 or 2
+     * @param frameCount The number of frames
+     */
+    private AdpcmSource(ByteBuffer codes, short[] blockPredictors, byte[] blockStepIndexes, int channelCount, int frameCount) {
+        this.codes = codes;
+        this.blockPredictors = blockPredictors;
+        this.blockStepIndexes = blockStepIndexes;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Encodes 16-bit PCM
+     * @param source The PCM, mono or stereo
+     * @return The encoded source
+     */
+    public static AdpcmSource encode(ShortBufferSource source) {
+        return encode(source, ByteBuffer.allocate(getCodeSize(source.getFrameCount(), source.getChannelCount())));
+    }
+
+    /**
+     * Encodes 16-bit PCM into a buffer, e.g. one outside of the Java heap
+     * @param source The PCM, mono or stereo
+     * @param codes The buffer the codes are written to, must hold getCodeSize() bytes
+     * @return The encoded source
+     */
+    public static AdpcmSource encode(ShortBufferSource source, ByteBuffer codes) {
+        int channelCount = source.getChannelCount();
+        int frameCount = source.getFrameCount();
+        int blockCount = (frameCount + BLOCK_FRAMES - 1) / BLOCK_FRAMES;
+        short[] blockPredictors = new short[blockCount * channelCount];
+        byte[] blockStepIndexes = new byte[blockCount * channelCount];
+        int[] predictors = new int[channelCount];
+        int[] stepIndexes = new int[channelCount];
+        ShortBuffer data = source.getData();
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (frame % BLOCK_FRAMES == 0) {
+                int block = frame / BLOCK_FRAMES;
+                for (int channel = 0; channel < channelCount; channel++) {
+                    blockPredictors[block * channelCount + channel] = (short) predictors[channel];
+                    blockStepIndexes[block * channelCount + channel] = (byte) stepIndexes[channel];
+                }
+            }
+            for (int channel = 0; channel < channelCount; channel++) {
+                int index = frame * channelCount + channel;
+                int step = STEP_SIZES[stepIndexes[channel]];
+                int difference = data.get(index) - predictors[channel];
+                int code = 0;
+                if (difference < 0) {
+                    code = 8;
+                    difference = -difference;
+                }
+                // Quantize the difference the way the decoder reconstructs it
+                int delta = step >> 3;
+                if (difference >= step) {
+                    code |= 4;
+                    difference -= step;
+                    delta += step;
+                }
+                if (difference >= step >> 1) {
+                    code |= 2;
+                    difference -= step >> 1;
+                    delta += step >> 1;
+                }
+                if (difference >= step >> 2) {
+                    code |= 1;
+                    delta += step >> 2;
+                }
+                predictors[channel] = clamp(predictors[channel] + ((code & 8) != 0 ? -delta : delta));
+                stepIndexes[channel] = Math.max(0, Math.min(STEP_SIZES.length - 1,
+                        stepIndexes[channel] + INDEX_ADJUSTMENTS[code]));
+                if ((index & 1) == 0) {
+                    codes.put(index >> 1, (byte) code);
+                } else {
+                    codes.put(index >> 1, (byte) (codes.get(index >> 1) | code << 4));
+                }
+            }
+        }
+        return new AdpcmSource(codes, blockPredictors, blockStepIndexes, channelCount, frameCount);
+    }
+
+    /**
+     * Gets the size of the codes of a clip
+     * @param frameCount The number of frames
+     * @param channelCount The number of channels
+     * @return The size in bytes
+     */
+    public static int getCodeSize(int frameCount, int channelCount) {
+        return (frameCount * channelCount + 1) / 2;
+    }
+
+    /**
+     * Gets the number of channels
+     * @return 1 for mono, 2 for stereo
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Gets the size of the encoded clip
+     * @return The size in bytes
+     */
+    public int getSizeInBytes() {
+        return codes.capacity() + blockPredictors.length * 2 + blockStepIndexes.length;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int read(int position, float[] buffer, int frames) {
+        int count = Math.max(0, Math.min(frames, frameCount - position));
+        if (count == 0) {
+            return 0;
+        }
+        for (int channel = 0; channel < channelCount; channel++) {
+            int block = position / BLOCK_FRAMES;
+            int frame = block * BLOCK_FRAMES;
+            int predictor = blockPredictors[block * channelCount + channel];
+            int stepIndex = blockStepIndexes[block * channelCount + channel];
+            int end = position + count;
+            while (frame < end) {
+                int index = frame * channelCount + channel;
+                int code = (codes.get(index >> 1) >> ((index & 1) << 2)) & 15;
+                int step = STEP_SIZES[stepIndex];
+                int delta = step >> 3;
+                if ((code & 4) != 0) {
+                    delta += step;
+                }
+                if ((code & 2) != 0) {
+                    delta += step >> 1;
+                }
+                if ((code & 1) != 0) {
+                    delta += step >> 2;
+                }
+                predictor = clamp(predictor + ((code & 8) != 0 ? -delta : delta));
+                stepIndex += INDEX_ADJUSTMENTS[code];
+                stepIndex = stepIndex < 0 ? 0 : (stepIndex >= STEP_SIZES.length ? STEP_SIZES.length - 1 : stepIndex);
+                if (frame >= position) {
+                    int offset = (frame - position) * 2;
+                    float value = predictor * SCALE;
+                    if (channelCount == 2) {
+                        buffer[offset + channel] = value;
+                    } else {
+                        buffer[offset] = value;
+                        buffer[offset + 1] = value;
+                    }
+                }
+                frame++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Keeps a sample within the 16-bit range
+     * @param value The sample
+     * @return The clamped sample
+     */
+    private static int clamp(int value) {
+        return value > Short.MAX_VALUE ? Short.MAX_VALUE : (value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+    }
+}
@@ -0,0 +1,54 @@
+package com.hjortur.soundboard.audio.mixer;
+
+/**
+ * A sample source that holds floating point PCM, ranging from -1.0 to 1.0, in a float array
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class FloatArraySource implements SampleSource {
+    /**
+     * The interleaved samples
+     */
+    private final float[] data;
+    /**
+     * The number of channels, 1 or 2
+     */
+    private final int channelCount;
+    /**
+     * The number of frames
+     */
+    private final int frameCount;
+
+    /**
+     * Public constructor
+     * @param data The interleaved samples
+     * @param channelCount The number of channels, 1 or 2
+     */
+    public FloatArraySource(float[] data, int channelCount) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Only mono and stereo samples are supported");
+        }
+        this.data = data;
+        this.channelCount = channelCount;
+        this.frameCount = data.length / channelCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int read(int position, float[] buffer, int frames) {
+        int count = Math.max(0, Math.min(frames, frameCount - position));
+        if (channelCount == 2) {
+            System.arraycopy(data, position * 2, buffer, 0, count * 2);
+        } else {
+            for (int i = 0; i < count; i++) {
+                float value = data[position + i];
+                buffer[i * 2] = value;
+                buffer[i * 2 + 1] = value;
+            }
+        }
+        return count;
+    }
+}
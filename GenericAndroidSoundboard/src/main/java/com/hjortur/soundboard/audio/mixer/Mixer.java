@@ -0,0 +1,300 @@
+package com.hjortur.soundboard.audio.mixer;
+
+/**
+ * The Mixer class sums a number of voices into a block of interleaved stereo output. It does not
+ * depend on Android and all of its buffers are allocated up front, so rendering a block never
+ * allocates memory and can't cause garbage collection pauses on the audio thread.
+ * The mixer is not thread safe, callers that start voices from other threads must synchronize
+ * those calls with the rendering.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class Mixer {
+    /**
+     * Samples outside of -1.0 to 1.0 are cut off
+     */
+    public static final int CLIP_HARD = 0;
+    /**
+     * Samples are smoothly saturated as they get close to -1.0 and 1.0
+     */
+    public static final int CLIP_SOFT = 1;
+
+    /**
+     * Interface definition for a callback to be invoked when a voice stops playing its source
+     */
+    public interface OnVoiceEndedListener {
+        /**
+         * Called when a source has been played to the end, has been stopped or its voice has been
+         * taken over by another source. It's called on the thread that rendered the block or
+         * started or stopped the voice, so it must not block or allocate memory
+         * @param source The source that is no longer played
+         */
+        void onVoiceEnded(SampleSource source);
+    }
+
+    /**
+     * The voices that can be played at the same time
+     */
+    private final Voice[] voices;
+    /**
+     * The largest number of frames that can be rendered at a time
+     */
+    private final int maxFrames;
+    /**
+     * The buffer the voices are summed into
+     */
+    private final float[] mixBuffer;
+    /**
+     * The buffer a single voice is read into
+     */
+    private final float[] voiceBuffer;
+    /**
+     * How samples that fall outside of the output range are handled
+     */
+    private int clipMode = CLIP_HARD;
+    /**
+     * Incremented every time a voice is started, used for finding the oldest voice
+     */
+    private long startCounter;
+    /**
+     * Notified when a voice stops playing its source, can be null
+     */
+    private OnVoiceEndedListener onVoiceEndedListener;
+
+    /**
+     * Public constructor
+     * @param maxVoices The number of voices that can be played at the same time
+     * @param maxFrames The largest number of frames that can be rendered at a time
+     */
+    public Mixer(int maxVoices, int maxFrames) {
+        this.maxFrames = maxFrames;
+        voices = new Voice[maxVoices];
+        for (int i = 0; i < maxVoices; i++) {
+            voices[i] = new Voice();
+        }
+        mixBuffer = new float[maxFrames * 2];
+        voiceBuffer = new float[maxFrames * 2];
+    }
+
+    /**
+     * Sets how samples that fall outside of the output range are handled
+     * @param clipMode CLIP_HARD or CLIP_SOFT
+     */
+    public void setClipMode(int clipMode) {
+        this.clipMode = clipMode;
+    }
+
+    /**
+     * Sets the listener that is notified when a voice stops playing its source
+     * @param listener The listener, can be null
+     */
+    public void setOnVoiceEndedListener(OnVoiceEndedListener listener) {
+        onVoiceEndedListener = listener;
+    }
+
+    /**
+     * Gets the largest number of frames that can be rendered at a time
+     * @return The number of frames
+     */
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * Starts playing a sample source on a free voice. If all the voices are busy the one that
+     * was started first is reused
+     * @param source The sample source
+     * @param gain The gain, 1.0 plays the source at its original volume
+     * @param pan The stereo position, ranging from -1.0 (left) to 1.0 (right)
+     * @return The index of the voice that plays the source
+     */
+    public int play(SampleSource source, float gain, float pan) {
+        int index = 0;
+        for (int i = 0; i < voices.length; i++) {
+            if (voices[i].source == null) {
+                index = i;
+                break;
+            }
+            if (voices[i].startOrder < voices[index].startOrder) {
+                index = i;
+            }
+        }
+        Voice voice = voices[index];
+        end(voice);
+        voice.source = source;
+        voice.position = 0;
+        voice.startOrder = startCounter++;
+        setGain(index, gain, pan);
+        return index;
+    }
+
+    /**
+     * Changes the gain and stereo position of a voice
+     * @param index The index of the voice
+     * @param gain The gain, 1.0 plays the source at its original volume
+     * @param pan The stereo position, ranging from -1.0 (left) to 1.0 (right)
+     */
+    public void setGain(int index, float gain, float pan) {
+        // Constant power panning, so a sound in the center is as loud as one on either side
+        double angle = (Math.max(-1f, Math.min(1f, pan)) + 1) * Math.PI / 4;
+        voices[index].leftGain = (float) (gain * Math.cos(angle) * Math.sqrt(2));
+        voices[index].rightGain = (float) (gain * Math.sin(angle) * Math.sqrt(2));
+    }
+
+    /**
+     * Stops a voice
+     * @param index The index of the voice
+     */
+    public void stop(int index) {
+        end(voices[index]);
+    }
+
+    /**
+     * Stops the voices that play a source
+     * @param source The sample source
+     */
+    public void stop(SampleSource source) {
+        for (Voice voice : voices) {
+            if (voice.source == source) {
+                end(voice);
+            }
+        }
+    }
+
+    /**
+     * Stops all the voices
+     */
+    public void stopAll() {
+        for (Voice voice : voices) {
+            end(voice);
+        }
+    }
+
+    /**
+     * Gets the number of voices that are playing
+     * @return The number of active voices
+     */
+    public int getActiveVoiceCount() {
+        int count = 0;
+        for (Voice voice : voices) {
+            if (voice.source != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Mixes the next block into interleaved 16-bit stereo samples
+     * @param output The output buffer, must hold at least frames * 2 samples
+     * @param frames The number of frames to render, at most getMaxFrames()
+     */
+    public void render(short[] output, int frames) {
+        mixVoices(frames);
+        int length = frames * 2;
+        for (int i = 0; i < length; i++) {
+            float value = clip(mixBuffer[i]) * 32767f;
+            output[i] = (short) value;
+        }
+    }
+
+    /**
+     * Mixes the next block into interleaved floating point stereo samples, ranging from -1.0 to 1.0
+     * @param output The output buffer, must hold at least frames * 2 samples
+     * @param frames The number of frames to render, at most getMaxFrames()
+     */
+    public void render(float[] output, int frames) {
+        mixVoices(frames);
+        int length = frames * 2;
+        for (int i = 0; i < length; i++) {
+            output[i] = clip(mixBuffer[i]);
+        }
+    }
+
+    /**
+     * Sums the active voices into the mix buffer and advances them
+     * @param frames The number of frames to mix
+     */
+    private void mixVoices(int frames) {
+        if (frames > maxFrames) {
+            throw new IllegalArgumentException("Can't render more than " + maxFrames + " frames at a time");
+        }
+        int length = frames * 2;
+        for (int i = 0; i < length; i++) {
+            mixBuffer[i] = 0f;
+        }
+        for (Voice voice : voices) {
+            SampleSource source = voice.source;
+            if (source == null) {
+                continue;
+            }
+            int count = source.read(voice.position, voiceBuffer, frames);
+            float leftGain = voice.leftGain;
+            float rightGain = voice.rightGain;
+            for (int i = 0; i < count * 2; i += 2) {
+                mixBuffer[i] += voiceBuffer[i] * leftGain;
+                mixBuffer[i + 1] += voiceBuffer[i + 1] * rightGain;
+            }
+            voice.position += count;
+            if (count < frames || voice.position >= source.getFrameCount()) {
+                end(voice);
+            }
+        }
+    }
+
+    /**
+     * Frees a voice and notifies the listener if it was playing
+     * @param voice The voice
+     */
+    private void end(Voice voice) {
+        SampleSource source = voice.source;
+        voice.source = null;
+        if (source != null && onVoiceEndedListener != null) {
+            onVoiceEndedListener.onVoiceEnded(source);
+        }
+    }
+
+    /**
+     * Keeps a sample within -1.0 to 1.0
+     * @param value The sample
+     * @return The clipped sample
+     */
+    private float clip(float value) {
+        if (clipMode == CLIP_SOFT) {
+            // Cubic saturation curve, linear around zero and flat at -1.5 and 1.5
+            if (value >= 1.5f) {
+                return 1f;
+            }
+            if (value <= -1.5f) {
+                return -1f;
+            }
+            return value - (4f / 27f) * value * value * value;
+        }
+        return value > 1f ? 1f : (value < -1f ? -1f : value);
+    }
+
+    /**
+     * A voice that plays a single sample source
+     */
+    private static class Voice {
+        /**
+         * The source being played, or null if the voice is free
+         */
+        SampleSource source;
+        /**
+         * The next frame to be played
+         */
+        int position;
+        /**
+         * The gain of the left channel
+         */
+        float leftGain;
+        /**
+         * The gain of the right channel
+         */
+        float rightGain;
+        /**
+         * The order the voice was started in
+         */
+        long startOrder;
+    }
+}
@@ -0,0 +1,281 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sample source that plays a clip while it's being decoded. The first part of the clip is
+ * decoded up front, so the source can start right away, and the rest is written to a fixed size
+ * ring buffer by a decoding thread while the audio thread reads it. The memory it uses doesn't
+ * depend on the length of the clip.
+ * There must only be a single writing thread and a single reading thread. The reader never blocks,
+ * the writer can wait for room with awaitFreeFrames() and is woken up by the reader, or when the
+ * source is closed.
+ * The source can be reused for another clip with reset(), so the ring buffer is only allocated once.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class RingBufferSource implements SampleSource {
+    /**
+     * The scale used for converting 16-bit samples to floats
+     */
+    private static final float SCALE = 1f / 32768f;
+
+    /**
+     * The first part of the clip, interleaved stereo
+     */
+    private ShortBufferSource head;
+    /**
+     * The number of frames in the first part of the clip
+     */
+    private int headFrames;
+    /**
+     * The ring buffer holding the interleaved stereo samples that follow the head
+     */
+    private final short[] ring;
+    /**
+     * Used for wrapping the sample counts around the ring buffer
+     */
+    private final int mask;
+    /**
+     * The number of samples that have been written to the ring buffer
+     */
+    private volatile long writtenSamples;
+    /**
+     * The number of samples that have been read from the ring buffer
+     */
+    private volatile long readSamples;
+    /**
+     * Set by the writer when the whole clip has been written
+     */
+    private volatile boolean finished;
+    /**
+     * Set when the source is no longer played, the writer should stop
+     */
+    private volatile boolean closed = true;
+    /**
+     * The thread waiting in awaitFreeFrames(), null if the writer isn't waiting
+     */
+    private volatile Thread waitingWriter;
+    /**
+     * The number of free frames the waiting writer needs
+     */
+    private volatile int wantedFrames;
+    /**
+     * The number of times the reader ran out of samples before the clip was finished
+     */
+    private volatile int underrunCount;
+
+    /**
+     * Public constructor. The source is closed until it's given a clip with reset()
+     * @param capacityFrames The number of frames the ring buffer can hold, rounded up to a power of two
+     */
+    public RingBufferSource(int capacityFrames) {
+        int capacity = Integer.highestOneBit(Math.max(capacityFrames, 64) * 2 - 1) << 1;
+        ring = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Public constructor
+     * @param head The first part of the clip, interleaved stereo
+     * @param capacityFrames The number of frames the ring buffer can hold, rounded up to a power of two
+     */
+    public RingBufferSource(ShortBufferSource head, int capacityFrames) {
+        this(capacityFrames);
+        reset(head);
+    }
+
+    /**
+     * Starts over with another clip. Must only be called when the source is neither being read
+     * nor written, e.g. after its voice has ended and its writer has stopped
+     * @param head The first part of the clip, interleaved stereo
+     */
+    public void reset(ShortBufferSource head) {
+        if (head.getChannelCount() != 2) {
+            throw new IllegalArgumentException("The head must be stereo");
+        }
+        this.head = head;
+        headFrames = head.getFrameCount();
+        writtenSamples = 0;
+        readSamples = 0;
+        underrunCount = 0;
+        finished = false;
+        closed = false;
+    }
+
+    /**
+     * Gets the number of frames in the first part of the clip, which the writer should skip
+     * @return The number of frames
+     */
+    public int getHeadFrames() {
+        return headFrames;
+    }
+
+    /**
+     * Gets the number of frames that can be written without overwriting unread ones
+     * @return The number of frames
+     */
+    public int getFreeFrames() {
+        return (int) (ring.length - (writtenSamples - readSamples)) / 2;
+    }
+
+    /**
+     * Writes frames to the ring buffer. Only as many frames as there is room for are written
+     * @param samples The interleaved stereo samples
+     * @param offset The first sample to write
+     * @param frames The number of frames to write
+     * @return The number of frames that were written
+     */
+    public int write(short[] samples, int offset, int frames) {
+        long written = writtenSamples;
+        int count = Math.min(frames, (int) (ring.length - (written - readSamples)) / 2) * 2;
+        int start = (int) (written & mask);
+        int firstPart = Math.min(count, ring.length - start);
+        System.arraycopy(samples, offset, ring, start, firstPart);
+        System.arraycopy(samples, offset + firstPart, ring, 0, count - firstPart);
+        // Publish the samples only after they have been copied
+        writtenSamples = written + count;
+        return count / 2;
+    }
+
+    /**
+     * Waits until a number of frames can be written, or the source has been closed. Only the
+     * writer may call this
+     * @param frames The number of frames, at most the capacity of the ring buffer is waited for
+     * @return False if the source has been closed and the writer should stop
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public boolean awaitFreeFrames(int frames) throws InterruptedException {
+        int wanted = Math.min(frames, ring.length / 2);
+        if (closed || getFreeFrames() >= wanted) {
+            return !closed;
+        }
+        // Announce what we wait for before checking again, the reader checks it after it has read
+        waitingWriter = Thread.currentThread();
+        wantedFrames = wanted;
+        try {
+            while (!closed && getFreeFrames() < wanted) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingWriter = null;
+            wantedFrames = 0;
+        }
+        return !closed;
+    }
+
+    /**
+     * Marks the clip as completely written. The source ends when the rest of the buffer has been read
+     */
+    public void finish() {
+        finished = true;
+    }
+
+    /**
+     * Checks whether the whole clip has been written
+     * @return True if finish() has been called
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Tells the writer to stop, when the source won't be played any further
+     */
+    public void close() {
+        closed = true;
+        wakeWriter();
+    }
+
+    /**
+     * Checks whether the writer should stop
+     * @return True if close() has been called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the number of frames that have been read from the ring buffer. The writer can use it
+     * to tell whether the source is still being played
+     * @return The number of frames
+     */
+    public long getReadFrames() {
+        return readSamples / 2;
+    }
+
+    /**
+     * Gets the number of times the reader ran out of samples, and played silence, before the
+     * clip was finished
+     * @return The number of underruns
+     */
+    public int getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * Gets the length of the clip. It isn't known until the clip has been decoded, so the source
+     * reports the largest possible length and ends by returning fewer frames than were requested
+     * @return Integer.MAX_VALUE
+     */
+    @Override
+    public int getFrameCount() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads the next frames. The frames are read in order, only the head is read by position.
+     * If the writer has fallen behind the missing frames are played as silence, so the voice
+     * keeps playing until the clip has been finished
+     */
+    @Override
+    public int read(int position, float[] buffer, int frames) {
+        int count = 0;
+        if (position < headFrames) {
+            count = head.read(position, buffer, Math.min(frames, headFrames - position));
+        }
+        if (count == frames) {
+            return count;
+        }
+        // Check for the end before the number of samples, the writer publishes them in the opposite order
+        boolean done = finished;
+        long read = readSamples;
+        int available = (int) Math.min((frames - count) * 2, writtenSamples - read);
+        int start = (int) (read & mask);
+        int firstPart = Math.min(available, ring.length - start);
+        int offset = count * 2;
+        for (int i = 0; i < firstPart; i++) {
+            buffer[offset + i] = ring[start + i] * SCALE;
+        }
+        for (int i = firstPart; i < available; i++) {
+            buffer[offset + i] = ring[i - firstPart] * SCALE;
+        }
+        readSamples = read + available;
+        count += available / 2;
+        int wanted = wantedFrames;
+        if (wanted > 0 && getFreeFrames() >= wanted) {
+            wakeWriter();
+        }
+        if (count < frames && !done && !closed) {
+            for (int i = count * 2; i < frames * 2; i++) {
+                buffer[i] = 0f;
+            }
+            underrunCount++;
+            count = frames;
+        }
+        return count;
+    }
+
+    /**
+     * Wakes the writer up if it's waiting for room. This doesn't allocate memory, so the reader
+     * can call it from the audio thread
+     */
+    private void wakeWriter() {
+        Thread writer = waitingWriter;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The SampleArena class holds sample data outside of the Java heap. Memory is reserved in large
+ * direct ByteBuffers, the slabs, and handed out in pieces with a first fit free list. Freed pieces
+ * are merged with their free neighbours so the slabs can be reused for clips of any size. Samples
+ * that live in the arena don't add to the garbage collector's work, however large they are.
+ * The arena is thread safe, but the buffers it hands out should only be read by one thread at a
+ * time, or through duplicates.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SampleArena {
+    /**
+     * The default size of a slab
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+    /**
+     * The pieces are aligned to this number of bytes
+     */
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * The size of a regular slab. Larger allocations get a slab of their own
+     */
+    private final int slabSize;
+    /**
+     * The slabs that have been reserved
+     */
+    private final List<Slab> slabs = new ArrayList<Slab>();
+    /**
+     * The number of bytes that have been handed out and not freed
+     */
+    private long allocatedBytes;
+    /**
+     * The number of allocations that have been made
+     */
+    private int allocationCount;
+    /**
+     * The number of allocations that have been freed
+     */
+    private int freeCount;
+    /**
+     * The number of allocations that needed a new slab
+     */
+    private int slabAllocationCount;
+
+    /**
+     * Public constructor
+     */
+    public SampleArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Public constructor
+     * @param slabSize The size of a slab in bytes
+     */
+    public SampleArena(int slabSize) {
+        this.slabSize = align(slabSize);
+    }
+
+    /**
+     * Reserves a piece of the arena
+     * @param size The size in bytes
+     * @return The allocation, which must be freed when it's no longer used
+     */
+    public synchronized Allocation allocate(int size) {
+        int alignedSize = align(Math.max(size, 1));
+        for (Slab slab : slabs) {
+            int offset = slab.take(alignedSize);
+            if (offset >= 0) {
+                return created(slab, offset, size, alignedSize);
+            }
+        }
+        Slab slab = new Slab(Math.max(slabSize, alignedSize));
+        slabs.add(slab);
+        slabAllocationCount++;
+        return created(slab, slab.take(alignedSize), size, alignedSize);
+    }
+
+    /**
+     * Returns a piece to the arena. Slabs that were made for a single large allocation are
+     * released right away
+     * @param allocation The allocation, which must not be used afterwards
+     */
+    public synchronized void free(Allocation allocation) {
+        if (allocation.freed || allocation.slab.cleared) {
+            // The slab was dropped by clear(), there is nothing to give back
+            allocation.freed = true;
+            return;
+        }
+        allocation.freed = true;
+        allocation.slab.give(allocation.offset, allocation.alignedSize);
+        allocatedBytes -= allocation.alignedSize;
+        freeCount++;
+        if (allocation.slab.isEmpty() && allocation.slab.capacity > slabSize) {
+            slabs.remove(allocation.slab);
+        }
+    }
+
+    /**
+     * Releases the slabs that have nothing allocated in them
+     */
+    public synchronized void trim() {
+        for (int i = slabs.size() - 1; i >= 0; i--) {
+            if (slabs.get(i).isEmpty()) {
+                slabs.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Releases all the slabs and resets the statistics. The allocations that haven't been freed
+     * must not be used afterwards, freeing them does nothing
+     */
+    public synchronized void clear() {
+        for (Slab slab : slabs) {
+            slab.cleared = true;
+        }
+        slabs.clear();
+        allocatedBytes = 0;
+        allocationCount = 0;
+        freeCount = 0;
+        slabAllocationCount = 0;
+    }
+
+    /**
+     * Gets the number of bytes that are in use
+     * @return The number of bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the number of bytes that have been reserved outside of the heap
+     * @return The total size of the slabs
+     */
+    public synchronized long getCapacity() {
+        long capacity = 0;
+        for (Slab slab : slabs) {
+            capacity += slab.capacity;
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets the number of slabs
+     * @return The number of slabs
+     */
+    public synchronized int getSlabCount() {
+        return slabs.size();
+    }
+
+    /**
+     * Gets the number of allocations that are in use
+     * @return The number of allocations
+     */
+    public synchronized int getLiveAllocationCount() {
+        return allocationCount - freeCount;
+    }
+
+    /**
+     * Gets the size of the largest piece that can be allocated without reserving a new slab
+     * @return The size in bytes
+     */
+    public synchronized int getLargestFreeBlock() {
+        int largest = 0;
+        for (Slab slab : slabs) {
+            largest = Math.max(largest, slab.getLargestFreeBlock());
+        }
+        return largest;
+    }
+
+    /**
+     * Gets how fragmented the free space is. 0 means all of it is in a single block, values
+     * close to 1 mean it's scattered in small blocks that can only hold small clips
+     * @return The fragmentation, ranging from 0.0 to 1.0
+     */
+    public synchronized float getFragmentation() {
+        long free = getCapacity() - allocatedBytes;
+        if (free == 0) {
+            return 0f;
+        }
+        return 1f - (float) getLargestFreeBlock() / free;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int freeBlocks = 0;
+        for (Slab slab : slabs) {
+            freeBlocks += slab.freeBlocks.size();
+        }
+        return String.format("SampleArena[allocated=%d, capacity=%d, slabs=%d, allocations=%d, "
+                        + "frees=%d, slabAllocations=%d, freeBlocks=%d, largestFree=%d, fragmentation=%.2f]",
+                allocatedBytes, getCapacity(), slabs.size(), allocationCount, freeCount,
+                slabAllocationCount, freeBlocks, getLargestFreeBlock(), getFragmentation());
+    }
+
+    /**
+     * Creates an allocation and counts it
+     * @param slab The slab
+     * @param offset The offset of the piece in the slab
+     * @param size The requested size in bytes
+     * @param alignedSize The size of the piece in bytes
+     * @return The allocation
+     */
+    private Allocation created(Slab slab, int offset, int size, int alignedSize) {
+        allocatedBytes += alignedSize;
+        allocationCount++;
+        return new Allocation(slab, offset, size, alignedSize);
+    }
+
+    /**
+     * Rounds a size up to the alignment
+     * @param size The size in bytes
+     * @return The aligned size
+     */
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * A piece of the arena
+     */
+    public static class Allocation {
+        /**
+         * The slab the piece is in
+         */
+        private final Slab slab;
+        /**
+         * The offset of the piece in the slab
+         */
+        private final int offset;
+        /**
+         * The size of the piece, rounded up to the alignment
+         */
+        private final int alignedSize;
+        /**
+         * The piece, in the native byte order
+         */
+        private final ByteBuffer buffer;
+        /**
+         * Set when the piece has been freed
+         */
+        private boolean freed;
+
+        /**
+         * Public constructor
+         * @param slab The slab the piece is in
+         * @param offset The offset of the piece in the slab
+         * @param size The requested size in bytes
+         * @param alignedSize The size of the piece, rounded up to the alignment
+         */
+        Allocation(Slab slab, int offset, int size, int alignedSize) {
+            this.slab = slab;
+            this.offset = offset;
+            this.alignedSize = alignedSize;
+            ByteBuffer view = slab.buffer.duplicate();
+            view.limit(offset + size).position(offset);
+            buffer = view.slice().order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Gets the piece of the arena
+         * @return The buffer, in the native byte order, with room for the requested size
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Gets the size of the piece
+         * @return The size in bytes
+         */
+        public int getSize() {
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * A direct buffer that pieces are handed out from
+     */
+    private static class Slab {
+        /**
+         * The memory of the slab
+         */
+        final ByteBuffer buffer;
+        /**
+         * The size of the slab
+         */
+        final int capacity;
+        /**
+         * The free blocks, the size of each keyed by its offset
+         */
+        final TreeMap<Integer, Integer> freeBlocks = new TreeMap<Integer, Integer>();
+        /**
+         * Set when the slab has been dropped by clear()
+         */
+        boolean cleared;
+
+        /**
+         * Public constructor
+         * @param capacity The size of the slab
+         */
+        Slab(int capacity) {
+            this.capacity = capacity;
+            buffer = ByteBuffer.allocateDirect(capacity);
+            freeBlocks.put(0, capacity);
+        }
+
+        /**
+         * Takes a piece from the first free block that is large enough
+         * @param size The aligned size of the piece
+         * @return The offset of the piece, or -1 if no free block is large enough
+         */
+        int take(int size) {
+            for (Map.Entry<Integer, Integer> block : freeBlocks.entrySet()) {
+                if (block.getValue() >= size) {
+                    int offset = block.getKey();
+                    int remaining = block.getValue() - size;
+                    freeBlocks.remove(offset);
+                    if (remaining > 0) {
+                        freeBlocks.put(offset + size, remaining);
+                    }
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Gives a piece back, merging it with the free blocks around it
+         * @param offset The offset of the piece
+         * @param size The aligned size of the piece
+         */
+        void give(int offset, int size) {
+            Map.Entry<Integer, Integer> previous = freeBlocks.lowerEntry(offset);
+            if (previous != null && previous.getKey() + previous.getValue() == offset) {
+                offset = previous.getKey();
+                size += previous.getValue();
+                freeBlocks.remove(offset);
+            }
+            Integer nextSize = freeBlocks.get(offset + size);
+            if (nextSize != null) {
+                freeBlocks.remove(offset + size);
+                size += nextSize;
+            }
+            freeBlocks.put(offset, size);
+        }
+
+        /**
+         * Checks whether nothing is allocated in the slab
+         * @return True if the slab is a single free block
+         */
+        boolean isEmpty() {
+            Integer size = freeBlocks.get(0);
+            return size != null && size == capacity;
+        }
+
+        /**
+         * Gets the size of the largest free block
+         * @return The size in bytes
+         */
+        int getLargestFreeBlock() {
+            int largest = 0;
+            for (int size : freeBlocks.values()) {
+                largest = Math.max(largest, size);
+            }
+            return largest;
+        }
+    }
+}
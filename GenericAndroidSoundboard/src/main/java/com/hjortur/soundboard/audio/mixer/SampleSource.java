@@ -0,0 +1,23 @@
+package com.hjortur.soundboard.audio.mixer;
+
+/**
+ * The SampleSource interface is implemented by the classes that hold the audio a voice plays.
+ * Implementations must not allocate memory when they are read since they are read from the audio thread
+ * @author Hjörtur Líndal Stefánsson
+ */
+public interface SampleSource {
+    /**
+     * Gets the length of the audio
+     * @return The number of frames
+     */
+    int getFrameCount();
+
+    /**
+     * Reads frames as interleaved left and right float samples, ranging from -1.0 to 1.0
+     * @param position The first frame to read
+     * @param buffer The buffer to write the samples to
+     * @param frames The maximum number of frames to read
+     * @return The number of frames that were read, 0 when the end has been reached
+     */
+    int read(int position, float[] buffer, int frames);
+}
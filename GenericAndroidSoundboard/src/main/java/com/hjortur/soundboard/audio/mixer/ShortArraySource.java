@@ -0,0 +1,72 @@
+package com.hjortur.soundboard.audio.mixer;
+
+/**
+ * A sample source that holds 16-bit PCM in a short array
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ShortArraySource implements SampleSource {
+    /**
+     * The scale used for converting 16-bit samples to floats
+     */
+    private static final float SCALE = 1f / 32768f;
+
+    /**
+     * The interleaved samples
+     */
+    private final short[] data;
+    /**
+     * The number of channels, 1 or 2
+     */
+    private final int channelCount;
+    /**
+     * The number of frames
+     */
+    private final int frameCount;
+
+    /**
+     * Public constructor
+     * @param data The interleaved samples
+     * @param channelCount The number of channels, 1 or 2
+     */
+    public ShortArraySource(short[] data, int channelCount) {
+        this(data, channelCount, data.length / channelCount);
+    }
+
+    /**
+     * Public constructor
+     * @param data The interleaved samples
+     * @param channelCount The number of channels, 1 or 2
+     * @param frameCount The number of frames that are used in the array
+     */
+    public ShortArraySource(short[] data, int channelCount, int frameCount) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Only mono and stereo samples are supported");
+        }
+        this.data = data;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int read(int position, float[] buffer, int frames) {
+        int count = Math.max(0, Math.min(frames, frameCount - position));
+        if (channelCount == 2) {
+            int offset = position * 2;
+            for (int i = 0; i < count * 2; i++) {
+                buffer[i] = data[offset + i] * SCALE;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                float value = data[position + i] * SCALE;
+                buffer[i * 2] = value;
+                buffer[i * 2 + 1] = value;
+            }
+        }
+        return count;
+    }
+}
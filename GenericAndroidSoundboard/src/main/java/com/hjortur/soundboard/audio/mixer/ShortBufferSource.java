@@ -0,0 +1,142 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A sample source that holds 16-bit PCM in a ShortBuffer. The buffer can be backed by an array,
+ * by direct memory or by a memory mapped file
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ShortBufferSource implements SampleSource {
+    /**
+     * The scale used for converting 16-bit samples to floats
+     */
+    private static final float SCALE = 1f / 32768f;
+
+    /**
+     * The interleaved samples, starting at index 0
+     */
+    private final ShortBuffer data;
+    /**
+     * The number of channels, 1 or 2
+     */
+    private final int channelCount;
+    /**
+     * The number of frames
+     */
+    private final int frameCount;
+
+    /**
+     * Public constructor
+     * @param data The interleaved samples, starting at index 0
+     * @param channelCount The number of channels, 1 or 2
+     * @param frameCount The number of frames in the buffer
+     */
+    public ShortBufferSource(ShortBuffer data, int channelCount, int frameCount) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Only mono and stereo samples are supported");
+        }
+        this.data = data;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Gets the buffer holding the samples
+     * @return The interleaved samples, starting at index 0
+     */
+    public ShortBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Gets the number of channels
+     * @return 1 for mono, 2 for stereo
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Gets the size of the samples
+     * @return The size in bytes
+     */
+    public int getSizeInBytes() {
+        return frameCount * channelCount * 2;
+    }
+
+    /**
+     * Checks whether the left and right channels are identical, as they are when a mono clip
+     * has been decoded to stereo
+     * @return True if the source is mono or both of its channels are identical
+     */
+    public boolean hasIdenticalChannels() {
+        if (channelCount == 1) {
+            return true;
+        }
+        for (int i = 0; i < frameCount * 2; i += 2) {
+            if (data.get(i) != data.get(i + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the left channel into a mono source, which takes half the memory of a stereo one.
+     * Only makes sense when hasIdenticalChannels() is true
+     * @return The mono source
+     */
+    public ShortBufferSource toMono() {
+        return toMono(ShortBuffer.allocate(frameCount));
+    }
+
+    /**
+     * Copies the left channel into a mono source in a buffer, e.g. one outside of the Java heap
+     * @param target The buffer, must hold getFrameCount() samples
+     * @return The mono source
+     */
+    public ShortBufferSource toMono(ShortBuffer target) {
+        for (int i = 0; i < frameCount; i++) {
+            target.put(i, data.get(i * channelCount));
+        }
+        return new ShortBufferSource(target, 1, frameCount);
+    }
+
+    /**
+     * Copies the samples into a buffer, e.g. one outside of the Java heap
+     * @param target The buffer, must hold getFrameCount() * getChannelCount() samples
+     * @return The source in the buffer
+     */
+    public ShortBufferSource copyTo(ShortBuffer target) {
+        ShortBuffer source = data.duplicate();
+        source.position(0).limit(frameCount * channelCount);
+        ShortBuffer destination = target.duplicate();
+        destination.position(0);
+        destination.put(source);
+        return new ShortBufferSource(target, channelCount, frameCount);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int read(int position, float[] buffer, int frames) {
+        int count = Math.max(0, Math.min(frames, frameCount - position));
+        if (channelCount == 2) {
+            int offset = position * 2;
+            for (int i = 0; i < count * 2; i++) {
+                buffer[i] = data.get(offset + i) * SCALE;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                float value = data.get(position + i) * SCALE;
+                buffer[i * 2] = value;
+                buffer[i * 2 + 1] = value;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,93 @@
+package com.hjortur.soundboard.catalog;
+
+/**
+ * The properties of a sound clip. They are worked out when the application is built, so the
+ * clip doesn't need to be probed or decoded to learn them
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ClipInfo {
+    /**
+     * The size of the file in bytes
+     */
+    private final int size;
+    /**
+     * The duration in milliseconds
+     */
+    private final int duration;
+    /**
+     * The sample rate in Hz
+     */
+    private final int sampleRate;
+    /**
+     * The number of channels
+     */
+    private final int channelCount;
+    /**
+     * The average bitrate in kbps
+     */
+    private final int bitrate;
+
+    /**
+     * Public constructor
+     * @param size The size of the file in bytes
+     * @param duration The duration in milliseconds, 0 if it's unknown
+     * @param sampleRate The sample rate in Hz, 0 if it's unknown
+     * @param channelCount The number of channels, 0 if it's unknown
+     * @param bitrate The average bitrate in kbps, 0 if it's unknown
+     */
+    public ClipInfo(int size, int duration, int sampleRate, int channelCount, int bitrate) {
+        this.size = size;
+        this.duration = duration;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitrate = bitrate;
+    }
+
+    /**
+     * Gets the size of the file
+     * @return The size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the duration
+     * @return The duration in milliseconds, 0 if it's unknown
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the sample rate
+     * @return The sample rate in Hz, 0 if it's unknown
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Gets the number of channels
+     * @return The channel count, 0 if it's unknown
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Gets the average bitrate
+     * @return The bitrate in kbps, 0 if it's unknown
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Gets the size of the clip once it has been decoded to 16-bit PCM
+     * @return The size in bytes, 0 if it's unknown
+     */
+    public long getDecodedSize() {
+        return (long) duration * sampleRate / 1000 * channelCount * 2;
+    }
+}
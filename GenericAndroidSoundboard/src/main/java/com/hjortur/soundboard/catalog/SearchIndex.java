@@ -0,0 +1,327 @@
+package com.hjortur.soundboard.catalog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The SearchIndex class finds the sounds whose name or category contains a search text. Every
+ * sequence of one, two and three characters (n-gram) in the names is indexed up front, so a search
+ * only has to look at the sounds that contain all the n-grams of the search text. Searches don't
+ * allocate memory: the matching positions are written to a buffer that is reused, and when the
+ * search text is extended the previous results are narrowed down instead of searching again.
+ * This class doesn't depend on Android.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SearchIndex {
+    /**
+     * The longest n-gram that is indexed
+     */
+    private static final int MAX_GRAM = 3;
+    /**
+     * Separates the name from the category in the searchable text, so a search never matches
+     * across the two
+     */
+    private static final char SEPARATOR = '\n';
+    /**
+     * The candidates of a search text containing an n-gram that no sound has
+     */
+    private static final int[] NO_POSITIONS = new int[0];
+
+    /**
+     * The number of sounds
+     */
+    private final int count;
+    /**
+     * The lower case searchable text of all the sounds, one after the other
+     */
+    private final char[] textPool;
+    /**
+     * Where the text of each sound starts in the text pool. The text ends where the next one starts
+     */
+    private final int[] textOffsets;
+    /**
+     * The n-grams, sorted so they can be found with a binary search
+     */
+    private final long[] grams;
+    /**
+     * The positions of the sounds that contain each n-gram, in ascending order
+     */
+    private final int[][] postings;
+    /**
+     * The positions that matched the last search
+     */
+    private final int[] results;
+    /**
+     * The number of positions that matched the last search
+     */
+    private int resultCount;
+    /**
+     * The lower case text of the last search
+     */
+    private char[] lastQuery = new char[32];
+    /**
+     * The length of the last search text, -1 if nothing has been searched for
+     */
+    private int lastQueryLength = -1;
+
+    /**
+     * Public constructor. Builds the index for all the sounds in a catalog
+     * @param catalog The catalog
+     */
+    public SearchIndex(SoundCatalog catalog) {
+        count = catalog.getCount();
+        textOffsets = new int[count + 1];
+        StringBuilder text = new StringBuilder(count * 24);
+        for (int position = 0; position < count; position++) {
+            SoundItem item = catalog.getItem(position);
+            appendLowerCase(text, item.getName());
+            if (item.getCategory() != null) {
+                appendLowerCase(text.append(SEPARATOR), item.getCategory());
+            }
+            textOffsets[position + 1] = text.length();
+        }
+        textPool = new char[text.length()];
+        text.getChars(0, text.length(), textPool, 0);
+
+        // Collect the positions of each n-gram, every position is only added once per n-gram
+        Map<Long, PositionList> gramPositions = new HashMap<Long, PositionList>();
+        for (int position = 0; position < count; position++) {
+            int end = textOffsets[position + 1];
+            for (int start = textOffsets[position]; start < end; start++) {
+                for (int length = 1; length <= MAX_GRAM && start + length <= end; length++) {
+                    long gram = packGram(textPool, start, length);
+                    if (gram < 0) {
+                        break;
+                    }
+                    PositionList list = gramPositions.get(gram);
+                    if (list == null) {
+                        list = new PositionList();
+                        gramPositions.put(gram, list);
+                    }
+                    list.add(position);
+                }
+            }
+        }
+        grams = new long[gramPositions.size()];
+        int i = 0;
+        for (Long gram : gramPositions.keySet()) {
+            grams[i++] = gram;
+        }
+        Arrays.sort(grams);
+        postings = new int[grams.length][];
+        for (i = 0; i < grams.length; i++) {
+            postings[i] = gramPositions.get(grams[i]).toArray();
+        }
+        results = new int[count];
+    }
+
+    /**
+     * Searches for the sounds whose name or category contains a text, ignoring case.
+     * The matching positions can be read with getResult()
+     * @param query The search text, an empty text matches all the sounds
+     * @return The number of matching sounds
+     */
+    public int search(CharSequence query) {
+        int length = query.length();
+        if (lastQuery.length < length) {
+            lastQuery = new char[length * 2];
+        }
+        boolean extendsLastQuery = lastQueryLength >= 0 && length >= lastQueryLength;
+        for (int i = 0; i < length; i++) {
+            char c = toLowerCase(query.charAt(i));
+            if (i < lastQueryLength && lastQuery[i] != c) {
+                extendsLastQuery = false;
+            }
+            lastQuery[i] = c;
+        }
+        lastQueryLength = length;
+
+        if (length == 0) {
+            for (int i = 0; i < count; i++) {
+                results[i] = i;
+            }
+            resultCount = count;
+            return resultCount;
+        }
+        int[] candidates = findCandidates(length);
+        if (candidates == null) {
+            // None of the n-grams could be looked up, so every sound is checked
+            for (int i = 0; i < count; i++) {
+                results[i] = i;
+            }
+            resultCount = filter(results, count);
+        } else if (length <= MAX_GRAM) {
+            // The search text is an n-gram itself, so its positions are exactly the matching sounds
+            System.arraycopy(candidates, 0, results, 0, candidates.length);
+            resultCount = candidates.length;
+        } else if (extendsLastQuery && resultCount <= candidates.length) {
+            // Every sound that matches the new text also matched the old one, so only those are checked
+            resultCount = filter(results, resultCount);
+        } else {
+            System.arraycopy(candidates, 0, results, 0, candidates.length);
+            resultCount = filter(results, candidates.length);
+        }
+        return resultCount;
+    }
+
+    /**
+     * Gets a position that matched the last search
+     * @param index The index of the result, less than the number returned by search()
+     * @return The position of the sound in the catalog
+     */
+    public int getResult(int index) {
+        if (index < 0 || index >= resultCount) {
+            throw new IndexOutOfBoundsException("Invalid result " + index + ", the search matched " + resultCount + " sounds");
+        }
+        return results[index];
+    }
+
+    /**
+     * Gets the number of positions that matched the last search
+     * @return The result count
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * Finds the shortest list of positions for the n-grams of the search text. Every matching
+     * sound is in that list
+     * @param length The length of the search text
+     * @return The positions, an empty array if one of the n-grams doesn't exist at all, or null if
+     * the search text has no n-grams that can be looked up
+     */
+    private int[] findCandidates(int length) {
+        int[] shortest = null;
+        int gramLength = Math.min(length, MAX_GRAM);
+        for (int start = 0; start + gramLength <= length; start++) {
+            long gram = packGram(lastQuery, start, gramLength);
+            if (gram < 0) {
+                // Characters that can't be packed are only checked by filter()
+                continue;
+            }
+            int index = Arrays.binarySearch(grams, gram);
+            if (index < 0) {
+                return NO_POSITIONS;
+            }
+            if (shortest == null || postings[index].length < shortest.length) {
+                shortest = postings[index];
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * Removes the positions whose text doesn't contain the last search text
+     * @param positions The positions to filter, the matching ones are moved to the front
+     * @param length The number of positions
+     * @return The number of matching positions
+     */
+    private int filter(int[] positions, int length) {
+        int matches = 0;
+        for (int i = 0; i < length; i++) {
+            int position = positions[i];
+            if (contains(position)) {
+                positions[matches++] = position;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Checks whether the text of a sound contains the last search text
+     * @param position The position of the sound
+     * @return True if it contains the search text
+     */
+    private boolean contains(int position) {
+        int end = textOffsets[position + 1] - lastQueryLength;
+        for (int start = textOffsets[position]; start <= end; start++) {
+            int i = 0;
+            while (i < lastQueryLength && textPool[start + i] == lastQuery[i]) {
+                i++;
+            }
+            if (i == lastQueryLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs up to three characters into a single number. The length is stored in the top bits
+     * so "ab" and "ab\0" are different
+     * @param text The characters
+     * @param start The first character
+     * @param length The number of characters, 1 to 3
+     * @return The packed n-gram, or -1 if it contains the separator
+     */
+    private static long packGram(char[] text, int start, int length) {
+        long gram = length;
+        for (int i = 0; i < length; i++) {
+            char c = text[start + i];
+            if (c == SEPARATOR) {
+                return -1;
+            }
+            gram = (gram << 16) | c;
+        }
+        return gram;
+    }
+
+    /**
+     * Appends a text in lower case, one character at a time the same way the search text is
+     * lowered, so the index and the searches agree whatever the default locale is
+     * @param builder The builder to append to
+     * @param text The text
+     */
+    private static void appendLowerCase(StringBuilder builder, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            builder.append(toLowerCase(text.charAt(i)));
+        }
+    }
+
+    /**
+     * Lowers the case of a character for the index and the searches, independent of the locale
+     * @param c The character
+     * @return The lower case character
+     */
+    private static char toLowerCase(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * A growable list of positions in ascending order, used while the index is built
+     */
+    private static class PositionList {
+        /**
+         * The positions
+         */
+        int[] positions = new int[4];
+        /**
+         * The number of positions
+         */
+        int size;
+
+        /**
+         * Adds a position unless it's already the last one in the list
+         * @param position The position
+         */
+        void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Copies the positions to an array of the right size
+         * @return The positions
+         */
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
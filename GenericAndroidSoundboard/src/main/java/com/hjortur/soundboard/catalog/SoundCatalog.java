@@ -0,0 +1,212 @@
+package com.hjortur.soundboard.catalog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SoundCatalog class holds all the sounds of the soundboard in a compact form. The data is
+ * kept in primitive arrays and a single pool of characters for the names, and a SoundItem is only
+ * created the first time a position is used. Looking up a position takes constant time no matter
+ * how many sounds the board has. This class doesn't depend on Android.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SoundCatalog {
+    /**
+     * The initial capacity of the arrays
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of sounds
+     */
+    private int count;
+    /**
+     * The drawable ID of each sound
+     */
+    private int[] drawableIds = new int[INITIAL_CAPACITY];
+    /**
+     * The sound resource ID of each sound
+     */
+    private int[] soundIds = new int[INITIAL_CAPACITY];
+    /**
+     * The index of the category of each sound in the categories list, -1 if it has none
+     */
+    private int[] categoryIndexes = new int[INITIAL_CAPACITY];
+    /**
+     * The duration of each sound in milliseconds
+     */
+    private int[] durations = new int[INITIAL_CAPACITY];
+    /**
+     * Where the name of each sound starts in the name pool. The name ends where the next one starts
+     */
+    private int[] nameOffsets = new int[INITIAL_CAPACITY + 1];
+    /**
+     * The characters of all the names, one after the other
+     */
+    private char[] namePool = new char[INITIAL_CAPACITY * 16];
+    /**
+     * The distinct categories
+     */
+    private final List<String> categories = new ArrayList<String>();
+    /**
+     * The items that have been created so far, indexed by position
+     */
+    private SoundItem[] items = new SoundItem[INITIAL_CAPACITY];
+    /**
+     * The properties of the sound clips, keyed by the sound resource ID
+     */
+    private final Map<Integer, ClipInfo> clipInfos = new HashMap<Integer, ClipInfo>();
+
+    /**
+     * Adds a sound to the end of the catalog
+     * @param name The name
+     * @param drawableId The drawable ID
+     * @param soundId The sound resource ID
+     * @param category The category, can be null
+     * @param duration The duration in milliseconds, 0 if it's unknown
+     */
+    public void add(String name, int drawableId, int soundId, String category, int duration) {
+        if (count == drawableIds.length) {
+            int capacity = count * 2;
+            drawableIds = grow(drawableIds, capacity);
+            soundIds = grow(soundIds, capacity);
+            categoryIndexes = grow(categoryIndexes, capacity);
+            durations = grow(durations, capacity);
+            nameOffsets = grow(nameOffsets, capacity + 1);
+            SoundItem[] grownItems = new SoundItem[capacity];
+            System.arraycopy(items, 0, grownItems, 0, count);
+            items = grownItems;
+        }
+        int nameStart = nameOffsets[count];
+        if (nameStart + name.length() > namePool.length) {
+            char[] grownPool = new char[Math.max(namePool.length * 2, nameStart + name.length())];
+            System.arraycopy(namePool, 0, grownPool, 0, nameStart);
+            namePool = grownPool;
+        }
+        name.getChars(0, name.length(), namePool, nameStart);
+        nameOffsets[count + 1] = nameStart + name.length();
+
+        drawableIds[count] = drawableId;
+        soundIds[count] = soundId;
+        durations[count] = duration;
+        if (category == null) {
+            categoryIndexes[count] = -1;
+        } else {
+            int index = categories.indexOf(category);
+            if (index < 0) {
+                index = categories.size();
+                categories.add(category);
+            }
+            categoryIndexes[count] = index;
+        }
+        count++;
+    }
+
+    /**
+     * Stores the properties of a sound clip
+     * @param soundId The sound resource ID
+     * @param clipInfo The properties of the clip
+     */
+    public void putClipInfo(int soundId, ClipInfo clipInfo) {
+        clipInfos.put(soundId, clipInfo);
+    }
+
+    /**
+     * Gets the properties of a sound clip
+     * @param soundId The sound resource ID
+     * @return The properties of the clip, or null if they are not known
+     */
+    public ClipInfo getClipInfo(int soundId) {
+        return clipInfos.get(soundId);
+    }
+
+    /**
+     * Gets the number of sounds
+     * @return The count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the item at a position, creating it the first time it's used
+     * @param position The position
+     * @return The SoundItem
+     */
+    public SoundItem getItem(int position) {
+        checkPosition(position);
+        SoundItem item = items[position];
+        if (item == null) {
+            int categoryIndex = categoryIndexes[position];
+            item = new SoundItem(getName(position), drawableIds[position], soundIds[position],
+                    (categoryIndex >= 0) ? categories.get(categoryIndex) : null, durations[position]);
+            items[position] = item;
+        }
+        return item;
+    }
+
+    /**
+     * Gets the name of the sound at a position
+     * @param position The position
+     * @return The name
+     */
+    public String getName(int position) {
+        checkPosition(position);
+        int start = nameOffsets[position];
+        return new String(namePool, start, nameOffsets[position + 1] - start);
+    }
+
+    /**
+     * Gets the drawable ID of the sound at a position without creating the item
+     * @param position The position
+     * @return The drawable ID
+     */
+    public int getDrawableId(int position) {
+        checkPosition(position);
+        return drawableIds[position];
+    }
+
+    /**
+     * Gets the sound resource ID of the sound at a position without creating the item
+     * @param position The position
+     * @return The sound resource ID
+     */
+    public int getSoundId(int position) {
+        checkPosition(position);
+        return soundIds[position];
+    }
+
+    /**
+     * Gets the duration of the sound at a position without creating the item
+     * @param position The position
+     * @return The duration in milliseconds, 0 if it's unknown
+     */
+    public int getDuration(int position) {
+        checkPosition(position);
+        return durations[position];
+    }
+
+    /**
+     * Makes sure a position is within the catalog
+     * @param position The position
+     */
+    private void checkPosition(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", the catalog has " + count + " sounds");
+        }
+    }
+
+    /**
+     * Copies an array into a larger one
+     * @param array The array
+     * @param capacity The new capacity
+     * @return The larger array
+     */
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
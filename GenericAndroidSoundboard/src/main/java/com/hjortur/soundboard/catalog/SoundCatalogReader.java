@@ -0,0 +1,211 @@
+package com.hjortur.soundboard.catalog;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.JsonReader;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the sound catalog from the catalog.json file in the assets. The file is read with a
+ * streaming parser straight into the compact SoundCatalog, so no objects are created for the
+ * individual sounds while it's being read.
+ * The catalog is generated by the generateSoundCatalog Gradle task from src/main/board/catalog.json,
+ * which adds the properties of every clip in res/raw to it.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SoundCatalogReader {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "SoundCatalogReader";
+    /**
+     * The name of the catalog file in the assets
+     */
+    public static final String CATALOG_FILE = "catalog.json";
+
+    /**
+     * The resources used for looking up the images and sounds
+     */
+    private final Resources resources;
+    /**
+     * The name of our package, used for looking up the resources
+     */
+    private final String packageName;
+    /**
+     * The resource IDs that have been looked up, keyed by type and name
+     */
+    private final Map<String, Integer> resourceIds = new HashMap<String, Integer>();
+    /**
+     * The properties of the clips, keyed by the name of the sound resource
+     */
+    private final Map<String, ClipInfo> clipInfos = new HashMap<String, ClipInfo>();
+
+    /**
+     * Public constructor
+     * @param context The context
+     */
+    public SoundCatalogReader(Context context) {
+        resources = context.getResources();
+        packageName = context.getPackageName();
+    }
+
+    /**
+     * Reads the catalog from the assets
+     * @return The catalog
+     * @throws IOException If the catalog could not be read
+     */
+    public SoundCatalog read() throws IOException {
+        InputStream inputStream = resources.getAssets().open(CATALOG_FILE);
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads a catalog from a stream. Sounds whose image or sound resource doesn't exist are skipped
+     * @param inputStream The stream containing the JSON catalog
+     * @return The catalog
+     * @throws IOException If the catalog could not be read
+     */
+    public SoundCatalog read(InputStream inputStream) throws IOException {
+        SoundCatalog catalog = new SoundCatalog();
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if ("clips".equals(key)) {
+                    readClips(reader);
+                } else if ("sounds".equals(key)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readSound(reader, catalog);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException ex) {
+            // The JsonReader throws this when the file doesn't have the structure we expect
+            throw new IOException("Invalid sound catalog: " + ex.getMessage());
+        } finally {
+            reader.close();
+        }
+        return catalog;
+    }
+
+    /**
+     * Reads the properties of the clips. They come before the sounds in the catalog, so they are
+     * known by the time the sounds are read
+     * @param reader The reader, positioned at the start of the clips object
+     * @throws IOException If the clips could not be read
+     */
+    private void readClips(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int size = 0;
+            int duration = 0;
+            int sampleRate = 0;
+            int channelCount = 0;
+            int bitrate = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if ("size".equals(key)) {
+                    size = reader.nextInt();
+                } else if ("duration".equals(key)) {
+                    duration = reader.nextInt();
+                } else if ("sampleRate".equals(key)) {
+                    sampleRate = reader.nextInt();
+                } else if ("channels".equals(key)) {
+                    channelCount = reader.nextInt();
+                } else if ("bitrate".equals(key)) {
+                    bitrate = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            clipInfos.put(name, new ClipInfo(size, duration, sampleRate, channelCount, bitrate));
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a single sound and adds it to the catalog
+     * @param reader The reader, positioned at the start of the sound object
+     * @param catalog The catalog
+     * @throws IOException If the sound could not be read
+     */
+    private void readSound(JsonReader reader, SoundCatalog catalog) throws IOException {
+        String name = null;
+        String image = null;
+        String sound = null;
+        String category = null;
+        int duration = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if ("name".equals(key)) {
+                name = reader.nextString();
+            } else if ("image".equals(key)) {
+                image = reader.nextString();
+            } else if ("sound".equals(key)) {
+                sound = reader.nextString();
+            } else if ("category".equals(key)) {
+                category = reader.nextString();
+            } else if ("duration".equals(key)) {
+                duration = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        int drawableId = getResourceId(image, "drawable");
+        int soundId = getResourceId(sound, "raw");
+        if (name == null || drawableId == 0 || soundId == 0) {
+            Log.w(TAG, "Skipping invalid sound " + name + " (image " + image + ", sound " + sound + ")");
+            return;
+        }
+        ClipInfo clipInfo = clipInfos.get(sound);
+        if (clipInfo != null) {
+            catalog.putClipInfo(soundId, clipInfo);
+            if (duration == 0) {
+                duration = clipInfo.getDuration();
+            }
+        }
+        catalog.add(name, drawableId, soundId, category, duration);
+    }
+
+    /**
+     * Looks up a resource ID by name. The IDs are cached since the same images and sounds are
+     * usually used by many entries
+     * @param name The name of the resource
+     * @param type The type of the resource, e.g. "raw"
+     * @return The resource ID, or 0 if it doesn't exist
+     */
+    private int getResourceId(String name, String type) {
+        if (name == null) {
+            return 0;
+        }
+        String key = type + "/" + name;
+        Integer id = resourceIds.get(key);
+        if (id == null) {
+            id = resources.getIdentifier(name, type, packageName);
+            resourceIds.put(key, id);
+        }
+        return id;
+    }
+}
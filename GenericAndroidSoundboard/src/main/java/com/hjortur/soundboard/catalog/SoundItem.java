@@ -0,0 +1,84 @@
+package com.hjortur.soundboard.catalog;
+
+/**
+ * A small wrapper class for each sound item
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SoundItem {
+    /**
+     * The name
+     */
+    private final String name;
+    /**
+     * The drawable ID
+     */
+    private final int drawableId;
+    /**
+     * The sound file
+     */
+    private final int soundFile;
+    /**
+     * The category
+     */
+    private final String category;
+    /**
+     * The duration in milliseconds, 0 if it's unknown
+     */
+    private final int duration;
+
+    /**
+     * public constructor
+     * @param name The name
+     * @param drawableId The drawable ID
+     * @param soundFile The sound file
+     * @param category The category
+     * @param duration The duration in milliseconds, 0 if it's unknown
+     */
+    public SoundItem(String name, int drawableId, int soundFile, String category, int duration) {
+        this.name = name;
+        this.drawableId = drawableId;
+        this.soundFile = soundFile;
+        this.category = category;
+        this.duration = duration;
+    }
+
+    /**
+     * Gets the name
+     * @return The name of the sound
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the drawable ID
+     * @return The ID of the image resource
+     */
+    public int getDrawableId() {
+        return drawableId;
+    }
+
+    /**
+     * Gets the sound file
+     * @return The ID of the sound resource
+     */
+    public int getSoundFile() {
+        return soundFile;
+    }
+
+    /**
+     * Gets the category
+     * @return The category, can be null
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Gets the duration
+     * @return The duration in milliseconds, 0 if it's unknown
+     */
+    public int getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,871 @@
+package com.hjortur.soundboard.controls;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.SparseIntArray;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.ListAdapter;
+import android.widget.OverScroller;
+
+import com.hjortur.soundboard.catalog.SoundItem;
+import com.hjortur.soundboard.images.ThumbnailLoader;
+
+/**
+ * The PadView class draws the whole sound board as a single view, instead of inflating a layout
+ * for every cell of a GridView. The geometry of the grid is computed once per width, only the
+ * pads that are visible are drawn, the labels are laid out once and cached, and the view scrolls
+ * and hit-tests the touches itself. The pads are read from a ListAdapter whose items are SoundItems.
+ * In the trigger on touch down mode every finger that touches a pad triggers it right away, so
+ * several pads can be played at the same time without waiting for the fingers to be lifted.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class PadView extends View {
+    /**
+     * Interface definition for callbacks to be invoked when a pad is clicked or touched
+     */
+    public interface OnPadClickListener {
+        /**
+         * Called when a finger touches a pad in the trigger on touch down mode
+         * @param view The PadView
+         * @param position The position of the pad in the adapter
+         * @param tapTime The System.nanoTime() when the pad was touched
+         */
+        void onPadTouchDown(PadView view, int position, long tapTime);
+
+        /**
+         * Called when a pad has been clicked
+         * @param view The PadView
+         * @param position The position of the pad in the adapter
+         */
+        void onPadClick(PadView view, int position);
+
+        /**
+         * Called when a pad has been pressed for a while
+         * @param view The PadView
+         * @param position The position of the pad in the adapter
+         * @return True if the long click was handled
+         */
+        boolean onPadLongClick(PadView view, int position);
+    }
+
+    /**
+     * The number of columns, the same as the GridView
+     */
+    private static final int COLUMN_COUNT = 3;
+    /**
+     * The size of the label text in sp
+     */
+    private static final float LABEL_TEXT_SIZE = 14;
+    /**
+     * The horizontal margin of the label in dp
+     */
+    private static final float LABEL_MARGIN_HORIZONTAL = 9;
+    /**
+     * The bottom margin of the label in dp
+     */
+    private static final float LABEL_MARGIN_BOTTOM = 11;
+    /**
+     * The padding around the label text in dp
+     */
+    private static final float LABEL_PADDING = 2;
+    /**
+     * The color of the background behind the labels
+     */
+    private static final int LABEL_BACKGROUND_COLOR = 0x55000000;
+    /**
+     * The color drawn over a pad while it's pressed
+     */
+    private static final int PRESSED_COLOR = 0x4433b5e5;
+
+    /**
+     * The adapter providing the pads
+     */
+    private ListAdapter adapter;
+    /**
+     * Rebinds the pads when the data of the adapter changes
+     */
+    private final DataSetObserver dataSetObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            bindPads();
+        }
+
+        @Override
+        public void onInvalidated() {
+            bindPads();
+        }
+    };
+    /**
+     * The loader used for the images of the pads
+     */
+    private ThumbnailLoader thumbnailLoader;
+    /**
+     * The listener that is notified when a pad is clicked
+     */
+    private OnPadClickListener onPadClickListener;
+    /**
+     * The pads, one for each item of the adapter. Only the first padCount are in use
+     */
+    private Pad[] pads = new Pad[0];
+    /**
+     * The number of pads
+     */
+    private int padCount;
+
+    /**
+     * The width the geometry was computed for
+     */
+    private int geometryWidth = -1;
+    /**
+     * The width and height of the images of the pads
+     */
+    private int padSize;
+    /**
+     * The total height of all the rows
+     */
+    private int contentHeight;
+    /**
+     * The first row that was visible the last time the view was drawn
+     */
+    private int firstVisibleRow;
+    /**
+     * The last row that was visible the last time the view was drawn, -1 if nothing has been drawn
+     */
+    private int lastVisibleRow = -1;
+
+    /**
+     * The paint used for the images
+     */
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * The paint used for the backgrounds of the labels and the pressed pads
+     */
+    private final Paint fillPaint = new Paint();
+    /**
+     * The paint used for the label text
+     */
+    private final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    /**
+     * The horizontal margin of the labels in pixels
+     */
+    private final int labelMarginHorizontal;
+    /**
+     * The bottom margin of the labels in pixels
+     */
+    private final int labelMarginBottom;
+    /**
+     * The padding around the label text in pixels
+     */
+    private final int labelPadding;
+    /**
+     * The part of the image that is drawn, reused while drawing
+     */
+    private final Rect sourceRect = new Rect();
+    /**
+     * The area a pad is drawn in, reused while drawing
+     */
+    private final Rect padRect = new Rect();
+
+    /**
+     * Scrolls the view after it has been flung
+     */
+    private final OverScroller scroller;
+    /**
+     * Tracks the velocity of the touches for flinging
+     */
+    private VelocityTracker velocityTracker;
+    /**
+     * The distance a touch can move before it's a scroll
+     */
+    private final int touchSlop;
+    /**
+     * The minimum velocity of a fling
+     */
+    private final int minimumFlingVelocity;
+    /**
+     * The maximum velocity of a fling
+     */
+    private final int maximumFlingVelocity;
+    /**
+     * The y coordinate where the touch started
+     */
+    private float downY;
+    /**
+     * The y coordinate of the last touch event
+     */
+    private float lastY;
+    /**
+     * Set while the view is being scrolled by a touch
+     */
+    private boolean dragging;
+    /**
+     * The position of the pad that is pressed, -1 if none
+     */
+    private int pressedPosition = -1;
+    /**
+     * Set when the pads are triggered as soon as they are touched instead of when they are clicked
+     */
+    private boolean triggerOnTouchDown;
+    /**
+     * The pad each finger is holding down in the trigger on touch down mode, keyed by the pointer ID
+     */
+    private final SparseIntArray pointerPositions = new SparseIntArray();
+    /**
+     * The position of the pad that gets the long click, -1 if none
+     */
+    private int longPressPosition = -1;
+    /**
+     * Performs a long click when a pad has been pressed for a while
+     */
+    private final Runnable longPressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (longPressPosition >= 0 && onPadClickListener != null) {
+                int position = longPressPosition;
+                cancelPress();
+                onPadClickListener.onPadLongClick(PadView.this, position);
+            }
+        }
+    };
+
+    /**
+     * Public constructor.
+     * @param context The context
+     */
+    public PadView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Public constructor
+     * @param context The context
+     * @param attrs The attribute set
+     */
+    public PadView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    /**
+     * Public constructor
+     * @param context The context
+     * @param attrs The attribute set
+     * @param defStyle An attribute in the current theme that contains a reference to a style resource to apply to this view
+     */
+    public PadView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, LABEL_TEXT_SIZE, metrics));
+        labelMarginHorizontal = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, LABEL_MARGIN_HORIZONTAL, metrics));
+        labelMarginBottom = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, LABEL_MARGIN_BOTTOM, metrics));
+        labelPadding = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, LABEL_PADDING, metrics));
+
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        touchSlop = configuration.getScaledTouchSlop();
+        minimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+        scroller = new OverScroller(context);
+        setClickable(true);
+        setLongClickable(true);
+    }
+
+    /**
+     * Sets the adapter providing the pads. Its items must be SoundItems
+     * @param adapter The adapter
+     */
+    public void setAdapter(ListAdapter adapter) {
+        if (this.adapter != null) {
+            this.adapter.unregisterDataSetObserver(dataSetObserver);
+        }
+        this.adapter = adapter;
+        if (adapter != null) {
+            adapter.registerDataSetObserver(dataSetObserver);
+        }
+        bindPads();
+    }
+
+    /**
+     * Sets the loader used for the images of the pads
+     * @param thumbnailLoader The ThumbnailLoader instance
+     */
+    public void setThumbnailLoader(ThumbnailLoader thumbnailLoader) {
+        this.thumbnailLoader = thumbnailLoader;
+        invalidate();
+    }
+
+    /**
+     * Sets the listener that is notified when a pad is clicked
+     * @param listener The listener
+     */
+    public void setOnPadClickListener(OnPadClickListener listener) {
+        this.onPadClickListener = listener;
+    }
+
+    /**
+     * Sets whether the pads are triggered as soon as a finger touches them, which supports
+     * several fingers at once, instead of when they are clicked. A long press still opens the
+     * long click, and dragging a single finger still scrolls
+     * @param triggerOnTouchDown True to trigger the pads on touch down
+     */
+    public void setTriggerOnTouchDown(boolean triggerOnTouchDown) {
+        cancelPress();
+        this.triggerOnTouchDown = triggerOnTouchDown;
+    }
+
+    /**
+     * Finds the pad at a point of the view
+     * @param x The x coordinate, relative to the view
+     * @param y The y coordinate, relative to the view
+     * @return The position of the pad, or -1 if there is no pad at the point
+     */
+    public int getPositionAt(float x, float y) {
+        int width = getWidth();
+        if (padSize <= 0 || x < 0 || x >= width) {
+            return -1;
+        }
+        int row = (int)((y + getScrollY()) / padSize);
+        int column = (int)(x * COLUMN_COUNT / width);
+        int position = row * COLUMN_COUNT + column;
+        return (row >= 0 && position < padCount) ? position : -1;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        computeGeometry(width);
+        int height = MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.UNSPECIFIED
+                ? contentHeight : MeasureSpec.getSize(heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        computeGeometry(width);
+        scrollTo(0, clampScroll(getScrollY()));
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(longPressRunnable);
+        releaseRows(firstVisibleRow, lastVisibleRow);
+        lastVisibleRow = -1;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (padSize <= 0 || padCount == 0) {
+            return;
+        }
+        int scrollY = getScrollY();
+        int firstRow = scrollY / padSize;
+        int lastRow = Math.min((scrollY + getHeight() - 1) / padSize, getRowCount() - 1);
+        updateVisibleRows(firstRow, lastRow);
+
+        int width = getWidth();
+        int end = Math.min((lastRow + 1) * COLUMN_COUNT, padCount);
+        for (int position = firstRow * COLUMN_COUNT; position < end; position++) {
+            int row = position / COLUMN_COUNT;
+            int column = position % COLUMN_COUNT;
+            padRect.set(column * width / COLUMN_COUNT, row * padSize, (column + 1) * width / COLUMN_COUNT, (row + 1) * padSize);
+            Pad pad = pads[position];
+            drawPad(canvas, pad, padRect, position == pressedPosition || pad.pointerCount > 0);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        velocityTracker.addMovement(event);
+        if (triggerOnTouchDown) {
+            return onTriggerTouchEvent(event);
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (!scroller.isFinished()) {
+                    // A touch stops a fling, it doesn't press a pad
+                    scroller.abortAnimation();
+                    dragging = true;
+                } else {
+                    dragging = false;
+                    setPressedPosition(getPositionAt(event.getX(), event.getY()));
+                    if (pressedPosition >= 0) {
+                        longPressPosition = pressedPosition;
+                        postDelayed(longPressRunnable, ViewConfiguration.getLongPressTimeout());
+                    }
+                }
+                downY = event.getY();
+                lastY = downY;
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                float y = event.getY();
+                if (!dragging && Math.abs(y - downY) > touchSlop) {
+                    dragging = true;
+                    cancelPress();
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                if (dragging) {
+                    scrollTo(0, clampScroll(getScrollY() + Math.round(lastY - y)));
+                }
+                lastY = y;
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (dragging) {
+                    fling();
+                } else if (pressedPosition >= 0) {
+                    int position = pressedPosition;
+                    cancelPress();
+                    if (onPadClickListener != null) {
+                        onPadClickListener.onPadClick(this, position);
+                    }
+                }
+                recycleVelocityTracker();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                cancelPress();
+                recycleVelocityTracker();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Handles the touches in the trigger on touch down mode. Every finger that goes down on a pad
+     * triggers it, a single finger that is held still opens the long click and a single finger
+     * that moves scrolls the view
+     * @param event The touch event
+     * @return True, the event is always handled
+     */
+    private boolean onTriggerTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                scroller.abortAnimation();
+                dragging = false;
+                downY = event.getY();
+                lastY = downY;
+                longPressPosition = triggerPointer(event, 0);
+                if (longPressPosition >= 0) {
+                    postDelayed(longPressRunnable, ViewConfiguration.getLongPressTimeout());
+                }
+                return true;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // Several fingers are playing the pads, not asking for the long click
+                removeCallbacks(longPressRunnable);
+                longPressPosition = -1;
+                triggerPointer(event, event.getActionIndex());
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (event.getPointerCount() > 1) {
+                    return true;
+                }
+                float y = event.getY();
+                if (!dragging && Math.abs(y - downY) > touchSlop) {
+                    dragging = true;
+                    cancelPress();
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                if (dragging) {
+                    scrollTo(0, clampScroll(getScrollY() + Math.round(lastY - y)));
+                }
+                lastY = y;
+                return true;
+            case MotionEvent.ACTION_POINTER_UP:
+                releasePointer(event.getPointerId(event.getActionIndex()));
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (dragging) {
+                    fling();
+                }
+                cancelPress();
+                recycleVelocityTracker();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                cancelPress();
+                recycleVelocityTracker();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Triggers the pad under a finger that went down
+     * @param event The touch event
+     * @param pointerIndex The index of the finger in the event
+     * @return The position of the pad, or -1 if the finger isn't on a pad
+     */
+    private int triggerPointer(MotionEvent event, int pointerIndex) {
+        // The time the finger went down, rather than the time the event reached us
+        long tapTime = System.nanoTime() - (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L;
+        int position = getPositionAt(event.getX(pointerIndex), event.getY(pointerIndex));
+        if (position < 0) {
+            return -1;
+        }
+        pointerPositions.put(event.getPointerId(pointerIndex), position);
+        pads[position].pointerCount++;
+        invalidatePad(position);
+        if (onPadClickListener != null) {
+            onPadClickListener.onPadTouchDown(this, position, tapTime);
+        }
+        return position;
+    }
+
+    /**
+     * Releases the pad a finger was holding down
+     * @param pointerId The ID of the finger
+     */
+    private void releasePointer(int pointerId) {
+        int index = pointerPositions.indexOfKey(pointerId);
+        if (index < 0) {
+            return;
+        }
+        int position = pointerPositions.valueAt(index);
+        pointerPositions.removeAt(index);
+        if (position < padCount && pads[position].pointerCount > 0) {
+            pads[position].pointerCount--;
+            invalidatePad(position);
+        }
+        if (position == longPressPosition) {
+            removeCallbacks(longPressRunnable);
+            longPressPosition = -1;
+        }
+    }
+
+    /**
+     * Flings the view with the velocity of the last touches
+     */
+    private void fling() {
+        velocityTracker.computeCurrentVelocity(1000, maximumFlingVelocity);
+        int velocity = (int)velocityTracker.getYVelocity();
+        if (Math.abs(velocity) > minimumFlingVelocity) {
+            scroller.fling(0, getScrollY(), 0, -velocity, 0, 0, 0, getMaxScroll());
+            invalidate();
+        }
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(0, clampScroll(scroller.getCurrY()));
+            invalidate();
+        }
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        return contentHeight;
+    }
+
+    /**
+     * Reads the pads from the adapter. The pad objects, the cached labels and the images are kept
+     * for the positions whose item didn't change
+     */
+    private void bindPads() {
+        // The pressed pads may be gone or at other positions after the change
+        cancelPress();
+        int count = adapter == null ? 0 : adapter.getCount();
+        if (pads.length < count) {
+            Pad[] newPads = new Pad[Math.max(count, pads.length * 2)];
+            System.arraycopy(pads, 0, newPads, 0, pads.length);
+            pads = newPads;
+        }
+        for (int position = 0; position < count; position++) {
+            if (pads[position] == null) {
+                pads[position] = new Pad(position);
+            }
+            pads[position].bind((SoundItem)adapter.getItem(position));
+        }
+        for (int position = count; position < padCount; position++) {
+            pads[position].release();
+        }
+        padCount = count;
+        // Reload the images of the visible pads the next time the view is drawn
+        releaseRows(firstVisibleRow, lastVisibleRow);
+        lastVisibleRow = -1;
+        int oldHeight = contentHeight;
+        geometryWidth = -1;
+        computeGeometry(getWidth());
+        if (contentHeight != oldHeight) {
+            requestLayout();
+        }
+        scrollTo(0, clampScroll(getScrollY()));
+        invalidate();
+    }
+
+    /**
+     * Computes the size of the pads and the height of the grid for a width
+     * @param width The width of the view
+     */
+    private void computeGeometry(int width) {
+        if (width == geometryWidth) {
+            return;
+        }
+        int oldPadSize = padSize;
+        geometryWidth = width;
+        padSize = width / COLUMN_COUNT;
+        contentHeight = getRowCount() * padSize;
+        if (padSize != oldPadSize) {
+            // The labels wrap at the new width and the images are loaded at the new size
+            releaseRows(firstVisibleRow, lastVisibleRow);
+            lastVisibleRow = -1;
+            for (int position = 0; position < padCount; position++) {
+                pads[position].label = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of rows of pads
+     * @return The row count
+     */
+    private int getRowCount() {
+        return (padCount + COLUMN_COUNT - 1) / COLUMN_COUNT;
+    }
+
+    /**
+     * Gets the largest scroll position
+     * @return The scroll position in pixels
+     */
+    private int getMaxScroll() {
+        return Math.max(0, contentHeight - getHeight());
+    }
+
+    /**
+     * Keeps a scroll position within the content
+     * @param scrollY The scroll position
+     * @return The clamped scroll position
+     */
+    private int clampScroll(int scrollY) {
+        return Math.max(0, Math.min(scrollY, getMaxScroll()));
+    }
+
+    /**
+     * Releases the images of the rows that are no longer visible, so they can be reused for the
+     * rows that became visible
+     * @param firstRow The first visible row
+     * @param lastRow The last visible row
+     */
+    private void updateVisibleRows(int firstRow, int lastRow) {
+        if (firstRow == firstVisibleRow && lastRow == lastVisibleRow) {
+            return;
+        }
+        if (lastVisibleRow >= 0) {
+            releaseRows(firstVisibleRow, Math.min(lastVisibleRow, firstRow - 1));
+            releaseRows(Math.max(firstVisibleRow, lastRow + 1), lastVisibleRow);
+        }
+        firstVisibleRow = firstRow;
+        lastVisibleRow = lastRow;
+    }
+
+    /**
+     * Releases the images of a range of rows
+     * @param firstRow The first row
+     * @param lastRow The last row
+     */
+    private void releaseRows(int firstRow, int lastRow) {
+        int end = Math.min((lastRow + 1) * COLUMN_COUNT, padCount);
+        for (int position = Math.max(firstRow, 0) * COLUMN_COUNT; position < end; position++) {
+            pads[position].release();
+        }
+    }
+
+    /**
+     * Draws a single pad
+     * @param canvas The canvas
+     * @param pad The pad
+     * @param bounds The area of the pad
+     * @param pressed True if the pad is pressed
+     */
+    private void drawPad(Canvas canvas, Pad pad, Rect bounds, boolean pressed) {
+        if (!pad.requested && thumbnailLoader != null && pad.drawableId != 0) {
+            pad.requested = true;
+            thumbnailLoader.load(pad.drawableId, padSize, pad);
+        }
+        Bitmap bitmap = pad.bitmap;
+        if (bitmap != null) {
+            // Crop the image to the pad the same way as the centerCrop scale type
+            int bitmapWidth = bitmap.getWidth();
+            int bitmapHeight = bitmap.getHeight();
+            if (bitmapWidth * bounds.height() > bitmapHeight * bounds.width()) {
+                int width = bitmapHeight * bounds.width() / bounds.height();
+                sourceRect.set((bitmapWidth - width) / 2, 0, (bitmapWidth + width) / 2, bitmapHeight);
+            } else {
+                int height = bitmapWidth * bounds.height() / bounds.width();
+                sourceRect.set(0, (bitmapHeight - height) / 2, bitmapWidth, (bitmapHeight + height) / 2);
+            }
+            canvas.drawBitmap(bitmap, sourceRect, bounds, bitmapPaint);
+        }
+        if (pressed) {
+            fillPaint.setColor(PRESSED_COLOR);
+            canvas.drawRect(bounds, fillPaint);
+        }
+
+        Layout label = pad.getLabel(bounds.width() - 2 * (labelMarginHorizontal + labelPadding));
+        if (label == null) {
+            return;
+        }
+        int labelBottom = bounds.bottom - labelMarginBottom;
+        int labelTop = labelBottom - label.getHeight() - 2 * labelPadding;
+        fillPaint.setColor(LABEL_BACKGROUND_COLOR);
+        canvas.drawRect(bounds.left + labelMarginHorizontal, labelTop, bounds.right - labelMarginHorizontal, labelBottom, fillPaint);
+        canvas.save();
+        canvas.translate(bounds.left + labelMarginHorizontal + labelPadding, labelTop + labelPadding);
+        label.draw(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * Sets the pad that is pressed and redraws the pads whose state changed
+     * @param position The position of the pad, or -1 if none
+     */
+    private void setPressedPosition(int position) {
+        if (position != pressedPosition) {
+            invalidatePad(pressedPosition);
+            pressedPosition = position;
+            invalidatePad(position);
+        }
+    }
+
+    /**
+     * Cancels the press of the pads, including the pending long click
+     */
+    private void cancelPress() {
+        removeCallbacks(longPressRunnable);
+        longPressPosition = -1;
+        setPressedPosition(-1);
+        while (pointerPositions.size() > 0) {
+            releasePointer(pointerPositions.keyAt(0));
+        }
+    }
+
+    /**
+     * Redraws a single pad
+     * @param position The position of the pad, ignored if it's -1
+     */
+    private void invalidatePad(int position) {
+        if (position < 0 || padSize <= 0) {
+            return;
+        }
+        int row = position / COLUMN_COUNT;
+        int column = position % COLUMN_COUNT;
+        int width = getWidth();
+        // The rectangle is in content coordinates, invalidate() subtracts the scroll position
+        int top = row * padSize;
+        invalidate(column * width / COLUMN_COUNT, top, (column + 1) * width / COLUMN_COUNT, top + padSize);
+    }
+
+    /**
+     * Returns the velocity tracker to the pool
+     */
+    private void recycleVelocityTracker() {
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+    }
+
+    /**
+     * A single pad. It's the Target its image is loaded into, and keeps the layout of its label
+     */
+    private class Pad implements ThumbnailLoader.Target {
+        /**
+         * The position of the pad
+         */
+        final int position;
+        /**
+         * The drawable ID of the image
+         */
+        int drawableId;
+        /**
+         * The name shown in the label
+         */
+        String name;
+        /**
+         * The cached layout of the label, null until it's drawn
+         */
+        StaticLayout label;
+        /**
+         * The image, null until it has been loaded
+         */
+        Bitmap bitmap;
+        /**
+         * Set when the image has been requested from the loader
+         */
+        boolean requested;
+        /**
+         * The number of fingers holding the pad down in the trigger on touch down mode
+         */
+        int pointerCount;
+
+        /**
+         * Public constructor
+         * @param position The position of the pad
+         */
+        public Pad(int position) {
+            this.position = position;
+        }
+
+        /**
+         * Shows an item in the pad
+         * @param item The item
+         */
+        void bind(SoundItem item) {
+            if (item.getDrawableId() != drawableId) {
+                release();
+                drawableId = item.getDrawableId();
+            }
+            if (!item.getName().equals(name)) {
+                name = item.getName();
+                label = null;
+            }
+        }
+
+        /**
+         * Gets the layout of the label, laying it out if it hasn't been
+         * @param width The width of the text
+         * @return The layout, or null if the pad has no name
+         */
+        Layout getLabel(int width) {
+            if (label == null && name != null && width > 0) {
+                label = new StaticLayout(name, textPaint, width, Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+            }
+            return label;
+        }
+
+        /**
+         * Stops showing the image, so the bitmap can be reused
+         */
+        void release() {
+            if (requested && thumbnailLoader != null) {
+                thumbnailLoader.cancel(this);
+            }
+            requested = false;
+            bitmap = null;
+        }
+
+        @Override
+        public void setBitmap(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            invalidatePad(position);
+        }
+    }
+}
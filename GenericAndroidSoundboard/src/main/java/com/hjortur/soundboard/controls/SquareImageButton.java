@@ -10,6 +10,18 @@ import android.widget.ImageButton;
  * @author Hjörtur Líndal Stefánsson
  */
 public class SquareImageButton extends ImageButton {
+    /**
+     * Interface definition for a callback to be invoked when the size of the button changes
+     */
+    public interface OnSquareSizeChangedListener {
+        /**
+         * Called when the button has been measured with a new size
+         * @param button The button
+         * @param size The width and height of the button in pixels
+         */
+        void onSquareSizeChanged(SquareImageButton button, int size);
+    }
+
     /**
      * The ID of the sound clip
      */
@@ -20,6 +32,16 @@ public class SquareImageButton extends ImageButton {
      */
 	private String title;
 
+    /**
+     * The width and height the button was last measured with
+     */
+    private int squareSize;
+
+    /**
+     * The listener that is notified when the size changes
+     */
+    private OnSquareSizeChangedListener onSquareSizeChangedListener;
+
     /**
      * Public constructor.
      * @param context The context
@@ -57,7 +79,30 @@ public class SquareImageButton extends ImageButton {
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         //Snap to width
-        setMeasuredDimension(getMeasuredWidth(), getMeasuredWidth());
+        int size = getMeasuredWidth();
+        setMeasuredDimension(size, size);
+        if (size != squareSize) {
+            squareSize = size;
+            if (size > 0 && onSquareSizeChangedListener != null) {
+                onSquareSizeChangedListener.onSquareSizeChanged(this, size);
+            }
+        }
+    }
+
+    /**
+     * Gets the width and height the button was last measured with
+     * @return The size in pixels, or 0 if the button hasn't been measured
+     */
+    public int getSquareSize() {
+        return squareSize;
+    }
+
+    /**
+     * Sets the listener that is notified when the size of the button changes
+     * @param listener The listener
+     */
+    public void setOnSquareSizeChangedListener(OnSquareSizeChangedListener listener) {
+        this.onSquareSizeChangedListener = listener;
     }
 
     /**
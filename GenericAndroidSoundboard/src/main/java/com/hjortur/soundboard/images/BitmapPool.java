@@ -0,0 +1,283 @@
+package com.hjortur.soundboard.images;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The BitmapPool class keeps bitmaps that are no longer shown so their memory can be reused for
+ * decoding new images through BitmapFactory.Options.inBitmap. The bitmaps are bucketed by the size
+ * of their memory. On KitKat and newer any bitmap that is large enough can be reused, but older
+ * versions only reuse a bitmap with exactly the same dimensions and configuration, and only when
+ * the image is decoded with an inSampleSize of 1.
+ * The methods are thread safe.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class BitmapPool {
+    /**
+     * A bitmap more than this many times larger than needed is not reused, so small images don't
+     * hold on to large blocks of memory
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    /**
+     * The bitmaps keyed by the number of bytes they hold
+     */
+    private final TreeMap<Integer, List<Bitmap>> buckets = new TreeMap<Integer, List<Bitmap>>();
+    /**
+     * The bitmaps in the order they were added, so the oldest ones are evicted first
+     */
+    private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+    /**
+     * The maximum number of bytes held by the pool
+     */
+    private final int maxBytes;
+    /**
+     * The number of bytes held by the pool
+     */
+    private int currentBytes;
+    /**
+     * The number of requests that got a bitmap from the pool
+     */
+    private int hitCount;
+    /**
+     * The number of requests that found no bitmap in the pool
+     */
+    private int missCount;
+    /**
+     * The number of bitmaps that have been added to the pool
+     */
+    private int putCount;
+    /**
+     * The number of bitmaps that were recycled to keep the pool within its size
+     */
+    private int evictionCount;
+
+    /**
+     * Public constructor
+     * @param maxBytes The maximum number of bytes held by the pool
+     */
+    public BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks whether a bitmap can be reused for decoding an image on this device
+     * @param sampleSize The inSampleSize the image is decoded with
+     * @return True if inBitmap can be used
+     */
+    public static boolean canReuse(int sampleSize) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1;
+    }
+
+    /**
+     * Adds a bitmap that is no longer used to the pool. The oldest bitmaps are recycled if the
+     * pool gets too large
+     * @param bitmap The bitmap, must not be shown or used anywhere else
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = getSize(bitmap);
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        List<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            buckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        order.addLast(bitmap);
+        currentBytes += size;
+        putCount++;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Takes a bitmap from the pool that can be used as inBitmap for decoding an image
+     * @param width The width of the decoded image
+     * @param height The height of the decoded image
+     * @param config The configuration of the decoded image
+     * @return The bitmap, or null if the pool has none that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = takeLargeEnough(needed);
+        } else {
+            bitmap = takeExactMatch(needed, width, height, config);
+        }
+        if (bitmap == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Recycles all the bitmaps in the pool
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Gets the number of requests that got a bitmap from the pool
+     * @return The hit count
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of requests that found no bitmap in the pool
+     * @return The miss count
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of bitmaps that were recycled to keep the pool within its size
+     * @return The eviction count
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the part of the requests that got a bitmap from the pool
+     * @return The hit rate, ranging from 0.0 to 1.0
+     */
+    public synchronized float getHitRate() {
+        int requests = hitCount + missCount;
+        return requests == 0 ? 0 : (float)hitCount / requests;
+    }
+
+    /**
+     * Gets a string describing the pool, used for debugging
+     * @return The string
+     */
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[bytes=" + currentBytes + "/" + maxBytes + ",hits=" + hitCount + ",misses=" + missCount
+                + ",hitRate=" + Math.round(getHitRate() * 100) + "%,puts=" + putCount + ",evictions=" + evictionCount + "]";
+    }
+
+    /**
+     * Takes the smallest bitmap that holds enough bytes, on KitKat and newer the bitmap is
+     * reconfigured by the decoder
+     * @param needed The number of bytes needed
+     * @return The bitmap, or null if there is none
+     */
+    private Bitmap takeLargeEnough(int needed) {
+        Map.Entry<Integer, List<Bitmap>> entry = buckets.ceilingEntry(needed);
+        if (entry == null || entry.getKey() > needed * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        List<Bitmap> bucket = entry.getValue();
+        return take(entry.getKey(), bucket, bucket.size() - 1);
+    }
+
+    /**
+     * Takes a bitmap with exactly the same dimensions and configuration
+     * @param needed The number of bytes needed
+     * @param width The width
+     * @param height The height
+     * @param config The configuration
+     * @return The bitmap, or null if there is none
+     */
+    private Bitmap takeExactMatch(int needed, int width, int height, Bitmap.Config config) {
+        List<Bitmap> bucket = buckets.get(needed);
+        if (bucket == null) {
+            return null;
+        }
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = bucket.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                return take(needed, bucket, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a bitmap from the pool
+     * @param size The size of the bucket
+     * @param bucket The bucket
+     * @param index The index of the bitmap in the bucket
+     * @return The bitmap
+     */
+    private Bitmap take(int size, List<Bitmap> bucket, int index) {
+        Bitmap bitmap = bucket.remove(index);
+        if (bucket.isEmpty()) {
+            buckets.remove(size);
+        }
+        order.remove(bitmap);
+        currentBytes -= size;
+        return bitmap;
+    }
+
+    /**
+     * Recycles the oldest bitmaps until the pool holds no more than a given number of bytes
+     * @param size The maximum number of bytes
+     */
+    private void trimToSize(int size) {
+        Iterator<Bitmap> iterator = order.iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int bitmapSize = getSize(bitmap);
+            List<Bitmap> bucket = buckets.get(bitmapSize);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(bitmapSize);
+            }
+            currentBytes -= bitmapSize;
+            bitmap.recycle();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Gets the number of bytes a bitmap holds, which may be more than it uses after it has been
+     * reconfigured on KitKat
+     * @param bitmap The bitmap
+     * @return The number of bytes
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Gets the number of bytes used for each pixel by a bitmap configuration
+     * @param config The configuration
+     * @return The number of bytes
+     */
+    @SuppressWarnings("deprecation") // ARGB_4444 is deprecated, but decoders can still hand it to the pool
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
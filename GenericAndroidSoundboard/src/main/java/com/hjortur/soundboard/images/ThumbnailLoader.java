@@ -0,0 +1,397 @@
+package com.hjortur.soundboard.images;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The ThumbnailLoader class shows the images of the grid at the size of the cells. The images are
+ * decoded in the background, downsampled to the smallest size that still covers the cell, and kept
+ * in a memory bounded cache keyed by the drawable ID and the size, so an image that is used by many
+ * sounds is only decoded once. Bitmaps that are neither cached nor shown any more go to a
+ * BitmapPool, and their memory is reused for decoding the next images.
+ * All the methods must be called from the UI thread.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ThumbnailLoader {
+    /**
+     * Interface definition for something other than an ImageView that shows the images, such as
+     * a part of a custom drawn view
+     */
+    public interface Target {
+        /**
+         * Called on the UI thread when the image to show changes
+         * @param bitmap The image, or null while it's being decoded
+         */
+        void setBitmap(Bitmap bitmap);
+    }
+
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "ThumbnailLoader";
+    /**
+     * The part of the application's memory class used for the cache
+     */
+    private static final int MEMORY_CLASS_FRACTION = 8;
+    /**
+     * The part of the cache size used for the bitmap pool
+     */
+    private static final int POOL_FRACTION = 4;
+
+    /**
+     * The resources the images are decoded from
+     */
+    private final Resources resources;
+    /**
+     * The decoded images keyed by the drawable ID and the size
+     */
+    private final LruCache<Long, Bitmap> cache;
+    /**
+     * The pool of bitmaps whose memory can be reused
+     */
+    private final BitmapPool bitmapPool;
+    /**
+     * The executor that decodes the images in the background
+     */
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Used for delivering the decoded images on the UI thread
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * The keys of the images that are being decoded
+     */
+    private final Set<Long> decoding = new HashSet<Long>();
+    /**
+     * The image each view or Target is waiting for. A view that is rebound before its image has
+     * been decoded just waits for the new one
+     */
+    private final Map<Object, Long> targets = new WeakHashMap<Object, Long>();
+    /**
+     * The bitmap each view or Target is showing
+     */
+    private final Map<Object, Bitmap> shown = new WeakHashMap<Object, Bitmap>();
+    /**
+     * The number of views and Targets showing each bitmap, plus one while it's in the cache. A bitmap goes to
+     * the pool when its count drops to zero
+     */
+    private final Map<Bitmap, Integer> useCounts = new IdentityHashMap<Bitmap, Integer>();
+    /**
+     * Set when the loader has been released
+     */
+    private boolean released;
+
+    /**
+     * Public constructor
+     * @param context The context
+     */
+    public ThumbnailLoader(Context context) {
+        resources = context.getResources();
+        ActivityManager activityManager = (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION;
+        bitmapPool = new BitmapPool(maxBytes / POOL_FRACTION);
+        cache = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return BitmapPool.getSize(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                releaseUse(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Shows an image in a view. A cached image is shown right away, otherwise the view is cleared
+     * and the image is shown once it has been decoded
+     * @param drawableId The drawable ID of the image
+     * @param size The width and height of the view in pixels
+     * @param view The view
+     */
+    public void load(int drawableId, int size, ImageView view) {
+        loadInto(drawableId, size, view);
+    }
+
+    /**
+     * Shows an image in a Target, in the same way as in a view
+     * @param drawableId The drawable ID of the image
+     * @param size The width and height the image is drawn at in pixels
+     * @param target The Target
+     */
+    public void load(int drawableId, int size, Target target) {
+        loadInto(drawableId, size, target);
+    }
+
+    /**
+     * Stops showing an image in a Target, so the bitmap can be reused once nothing else shows it
+     * @param target The Target
+     */
+    public void cancel(Target target) {
+        targets.remove(target);
+        show(target, null);
+    }
+
+    /**
+     * Shows an image in a view or a Target
+     * @param drawableId The drawable ID of the image
+     * @param size The width and height of the image in pixels
+     * @param target The ImageView or Target
+     */
+    private void loadInto(int drawableId, int size, Object target) {
+        Long key = getKey(drawableId, size);
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            targets.remove(target);
+            show(target, bitmap);
+            return;
+        }
+        targets.put(target, key);
+        show(target, null);
+        if (released || !decoding.add(key)) {
+            // The image is already being decoded for another view
+            return;
+        }
+        decodeExecutor.execute(new DecodeTask(key, drawableId, size));
+    }
+
+    /**
+     * Stops decoding and releases the cached images. Should be called when the loader is no longer used
+     */
+    public void release() {
+        released = true;
+        decodeExecutor.shutdownNow();
+        handler.removeCallbacksAndMessages(null);
+        decoding.clear();
+        targets.clear();
+        shown.clear();
+        useCounts.clear();
+        cache.evictAll();
+        bitmapPool.clear();
+    }
+
+    /**
+     * Gets the pool of bitmaps whose memory is reused
+     * @return The BitmapPool instance
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Gets a string describing the cache, used for debugging
+     * @return The string
+     */
+    @Override
+    public String toString() {
+        return cache.toString() + " " + bitmapPool.toString();
+    }
+
+    /**
+     * Shows a decoded image in the views that are waiting for it and adds it to the cache
+     * @param key The key of the image
+     * @param bitmap The image, or null if it could not be decoded
+     */
+    private void deliver(Long key, Bitmap bitmap) {
+        decoding.remove(key);
+        if (released || bitmap == null) {
+            return;
+        }
+        // The use by the cache is counted before the bitmap is shown, so it isn't pooled while it's being handed out
+        retain(bitmap);
+        Iterator<Map.Entry<Object, Long>> iterator = targets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Long> target = iterator.next();
+            if (key.equals(target.getValue())) {
+                iterator.remove();
+                show(target.getKey(), bitmap);
+            }
+        }
+        cache.put(key, bitmap);
+    }
+
+    /**
+     * Shows a bitmap in a view or a Target and keeps track of which bitmaps are in use
+     * @param target The ImageView or Target
+     * @param bitmap The bitmap, or null to clear the view
+     */
+    private void show(Object target, Bitmap bitmap) {
+        Bitmap old = bitmap == null ? shown.remove(target) : shown.put(target, bitmap);
+        if (old == bitmap) {
+            return;
+        }
+        if (bitmap != null) {
+            retain(bitmap);
+        }
+        if (target instanceof ImageView) {
+            ImageView view = (ImageView)target;
+            if (bitmap == null) {
+                view.setImageDrawable(null);
+            } else {
+                view.setImageBitmap(bitmap);
+            }
+        } else {
+            ((Target)target).setBitmap(bitmap);
+        }
+        // The view no longer draws the old bitmap, so it's safe to reuse it
+        releaseUse(old);
+    }
+
+    /**
+     * Increases the number of uses of a bitmap
+     * @param bitmap The bitmap
+     */
+    private void retain(Bitmap bitmap) {
+        Integer count = useCounts.get(bitmap);
+        useCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Decreases the number of uses of a bitmap and adds it to the pool when it's no longer used
+     * @param bitmap The bitmap, may be null
+     */
+    private void releaseUse(Bitmap bitmap) {
+        Integer count = useCounts.get(bitmap);
+        if (bitmap == null || count == null) {
+            return;
+        }
+        if (count > 1) {
+            useCounts.put(bitmap, count - 1);
+        } else {
+            useCounts.remove(bitmap);
+            bitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Decodes an image, downsampled by the largest power of two that keeps it at least as large
+     * as the view. The memory of a pooled bitmap is reused if there is one that fits
+     * @param drawableId The drawable ID of the image
+     * @param size The width and height of the view in pixels
+     * @return The image, or null if it could not be decoded
+     */
+    private Bitmap decode(int drawableId, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        // The images are scaled to the cell size by us, not to the screen density
+        options.inScaled = false;
+        BitmapFactory.decodeResource(resources, drawableId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, size);
+        // Bitmaps must be mutable to be reused
+        options.inMutable = true;
+        if (BitmapPool.canReuse(options.inSampleSize)) {
+            if (options.inSampleSize > 1) {
+                // Get the exact dimensions of the downsampled image
+                BitmapFactory.decodeResource(resources, drawableId, options);
+            }
+            options.inBitmap = bitmapPool.get(options.outWidth, options.outHeight, options.inPreferredConfig);
+        }
+        options.inJustDecodeBounds = false;
+        try {
+            return BitmapFactory.decodeResource(resources, drawableId, options);
+        } catch (IllegalArgumentException ex) {
+            // The decoder could not reuse the bitmap after all, so decode into a new one
+            Log.w(TAG, "Could not reuse a bitmap for image " + drawableId, ex);
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeResource(resources, drawableId, options);
+        }
+    }
+
+    /**
+     * Calculates the sample size to decode an image with. The image fills a square view, so its
+     * shorter side must not get smaller than the view
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param size The width and height of the view
+     * @return The sample size, a power of two
+     */
+    static int calculateSampleSize(int width, int height, int size) {
+        int shortSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shortSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Gets the cache key of an image
+     * @param drawableId The drawable ID of the image
+     * @param size The size it's shown at
+     * @return The key
+     */
+    private static Long getKey(int drawableId, int size) {
+        return ((long)drawableId << 32) | (size & 0xffffffffL);
+    }
+
+    /**
+     * Decodes an image in the background and delivers it on the UI thread
+     */
+    private class DecodeTask implements Runnable {
+        /**
+         * The key of the image
+         */
+        private final Long key;
+        /**
+         * The drawable ID of the image
+         */
+        private final int drawableId;
+        /**
+         * The size to decode the image at
+         */
+        private final int size;
+
+        /**
+         * Public constructor
+         * @param key The key of the image
+         * @param drawableId The drawable ID of the image
+         * @param size The size to decode the image at
+         */
+        public DecodeTask(Long key, int drawableId, int size) {
+            this.key = key;
+            this.drawableId = drawableId;
+            this.size = size;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            try {
+                bitmap = decode(drawableId, size);
+            } catch (OutOfMemoryError ex) {
+                Log.e(TAG, "Not enough memory to decode image " + drawableId, ex);
+            } catch (Resources.NotFoundException ex) {
+                Log.e(TAG, "Image " + drawableId + " not found", ex);
+            }
+            final Bitmap result = bitmap;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(key, result);
+                }
+            });
+        }
+    }
+}
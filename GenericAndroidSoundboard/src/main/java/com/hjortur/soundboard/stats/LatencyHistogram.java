@@ -0,0 +1,133 @@
+package com.hjortur.soundboard.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with logarithmic buckets, in the style of HdrHistogram. Every power of
+ * two is split into 32 linear sub buckets, so a recorded value is accurate to about 3% no matter
+ * how large it is. All the buckets are allocated up front and recording is lock free, so values
+ * can be recorded from the UI thread and the audio thread without allocating memory.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class LatencyHistogram {
+    /**
+     * The number of bits used for the linear sub buckets
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * The number of linear sub buckets in every power of two
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * The largest value that can be recorded, about 18 minutes in nanoseconds. Larger values are
+     * recorded as this value
+     */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    /**
+     * The number of values recorded in each bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(getBucketIndex(MAX_VALUE) + 1);
+
+    /**
+     * Records a value
+     * @param value The value, e.g. a latency in nanoseconds. Negative values are recorded as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(getBucketIndex(Math.max(0, Math.min(value, MAX_VALUE))));
+    }
+
+    /**
+     * Gets the number of recorded values
+     * @return The total count
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the value that the given percentage of the recorded values are at or below
+     * @param percentile The percentile, ranging from 0 to 100
+     * @return The value, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return getBucketMidpoint(i);
+            }
+        }
+        return getBucketMidpoint(counts.length() - 1);
+    }
+
+    /**
+     * Gets the largest recorded value
+     * @return The value, or 0 if nothing has been recorded
+     */
+    public long getMaxValue() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return getBucketMidpoint(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Removes all the recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Gets the index of the bucket a value belongs to
+     * @param value The value, between 0 and MAX_VALUE
+     * @return The bucket index
+     */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS));
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + (subBucket - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Gets the smallest value that belongs to a bucket
+     * @param index The bucket index
+     * @return The value
+     */
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return subBucket << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Gets the value in the middle of a bucket, used when reporting values
+     * @param index The bucket index
+     * @return The value
+     */
+    private static long getBucketMidpoint(int index) {
+        long lowerBound = getBucketLowerBound(index);
+        long width = getBucketLowerBound(index + 1) - lowerBound;
+        return lowerBound + width / 2;
+    }
+}
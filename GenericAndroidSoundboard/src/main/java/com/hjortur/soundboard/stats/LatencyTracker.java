@@ -0,0 +1,86 @@
+package com.hjortur.soundboard.stats;
+
+import android.util.Log;
+
+/**
+ * Keeps track of how long it takes from a sound button being tapped until the sound starts
+ * playing. Each stage of playback is recorded in its own histogram, measured from the tap
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class LatencyTracker {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "LatencyTracker";
+
+    /**
+     * The sample had to be loaded before it could be played, measured when loading finished
+     */
+    public static final int STAGE_LOADED = 0;
+    /**
+     * The playback engine has returned from its play call
+     */
+    public static final int STAGE_PLAY_RETURNED = 1;
+    /**
+     * The first buffer containing the sound has been written to the audio output
+     */
+    public static final int STAGE_FIRST_BUFFER = 2;
+
+    /**
+     * The names of the stages, used when the statistics are dumped
+     */
+    private static final String[] STAGE_NAMES = { "load complete", "play() returned", "first buffer written" };
+
+    /**
+     * The histograms of each stage
+     */
+    private static final LatencyHistogram[] histograms = {
+            new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()
+    };
+
+    /**
+     * Private constructor, this class only contains static methods
+     */
+    private LatencyTracker() {
+    }
+
+    /**
+     * Records that a stage has been reached
+     * @param stage The stage, one of the STAGE constants
+     * @param tapTime The System.nanoTime() when the button was tapped
+     */
+    public static void record(int stage, long tapTime) {
+        histograms[stage].record(System.nanoTime() - tapTime);
+    }
+
+    /**
+     * Gets the histogram of a stage
+     * @param stage The stage, one of the STAGE constants
+     * @return The histogram, with the latencies in nanoseconds
+     */
+    public static LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * Writes the 50th, 95th and 99th percentiles of every stage to the log
+     */
+    public static void dump() {
+        for (int stage = 0; stage < histograms.length; stage++) {
+            LatencyHistogram histogram = histograms[stage];
+            Log.i(TAG, String.format("%s: count=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    STAGE_NAMES[stage], histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(95) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getMaxValue() / 1e6));
+        }
+    }
+
+    /**
+     * Removes all the recorded latencies
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.hjortur.soundboard.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * The ExportManifest class records the sound files that have been exported to the device storage:
+ * the resource they were exported from, their size, modification time and checksum, and their Uri
+ * in the media store. An export that is repeated by the same version of the app, of a file that
+ * hasn't been touched since, is then known to be up to date without reading the file. The Uri
+ * also serves as a persistent cache, so the media store doesn't have to be searched by path.
+ * The manifest is kept in the shared preferences.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ExportManifest {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "ExportManifest";
+    /**
+     * The name of the shared preferences holding the manifest
+     */
+    private static final String PREFERENCES_NAME = "export_manifest";
+    /**
+     * Separates the fields of an entry
+     */
+    private static final String SEPARATOR = ";";
+
+    /**
+     * The shared preferences holding the manifest, keyed by the path of the exported file
+     */
+    private final SharedPreferences preferences;
+    /**
+     * Identifies the installed version of the app. The bundled sounds may change when it changes
+     */
+    private final String versionKey;
+
+    /**
+     * Public constructor
+     * @param context The context
+     */
+    public ExportManifest(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        versionKey = PackageUtilities.getVersionKey(context);
+    }
+
+    /**
+     * Gets the entry of an exported file
+     * @param file The file
+     * @return The entry, or null if the file isn't in the manifest
+     */
+    public Entry get(File file) {
+        return get(file.getAbsolutePath());
+    }
+
+    /**
+     * Gets the entry of an exported file by its path. Used for files that were written through
+     * the media store, which aren't reachable as a File
+     * @param path The path of the file, e.g. its relative path in the media store
+     * @return The entry, or null if the file isn't in the manifest
+     */
+    public Entry get(String path) {
+        String value = preferences.getString(path, null);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(SEPARATOR, 6);
+        if (fields.length != 6) {
+            return null;
+        }
+        try {
+            Uri uri = fields[5].length() == 0 ? null : Uri.parse(fields[5]);
+            return new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), fields[4], uri);
+        } catch (NumberFormatException ex) {
+            Log.w(TAG, "Ignoring invalid manifest entry for " + path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Records a file that has been exported by this version of the app. The size and
+     * modification time are read from the file
+     * @param file The file
+     * @param resourceId The ID of the sound resource the file was exported from
+     * @param checksum The CRC32 checksum of the file
+     * @param uri The Uri of the file in the media store, may be null
+     */
+    public void put(File file, int resourceId, long checksum, Uri uri) {
+        preferences.edit().putString(file.getAbsolutePath(), toValue(file, resourceId, checksum, uri)).commit();
+    }
+
+    /**
+     * Records a file that has been exported through the media store by this version of the app
+     * @param path The path of the file, e.g. its relative path in the media store
+     * @param resourceId The ID of the sound resource the file was exported from
+     * @param size The size of the file in bytes
+     * @param lastModified The modification time of the file, as the media store reports it
+     * @param checksum The CRC32 checksum of the file
+     * @param uri The Uri of the file in the media store
+     */
+    public void put(String path, int resourceId, long size, long lastModified, long checksum, Uri uri) {
+        preferences.edit().putString(path, toValue(resourceId, size, lastModified, checksum, uri)).commit();
+    }
+
+    /**
+     * Records a number of files that have been exported by this version of the app. They are
+     * written in a single commit, which is much faster than putting them one at a time
+     * @param files The files
+     * @param resourceIds The ID of the sound resource each file was exported from
+     * @param checksums The CRC32 checksum of each file
+     * @param uris The Uri of each file in the media store, may contain nulls
+     * @param count The number of files
+     */
+    public void putAll(File[] files, int[] resourceIds, long[] checksums, Uri[] uris, int count) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < count; i++) {
+            editor.putString(files[i].getAbsolutePath(), toValue(files[i], resourceIds[i], checksums[i], uris[i]));
+        }
+        editor.commit();
+    }
+
+    /**
+     * Records a number of files that have been exported through the media store by this version
+     * of the app, in a single commit
+     * @param paths The path of each file, e.g. its relative path in the media store
+     * @param resourceIds The ID of the sound resource each file was exported from
+     * @param sizes The size of each file in bytes
+     * @param lastModifieds The modification time of each file, as the media store reports it
+     * @param checksums The CRC32 checksum of each file
+     * @param uris The Uri of each file in the media store
+     * @param count The number of files
+     */
+    public void putAll(String[] paths, int[] resourceIds, long[] sizes, long[] lastModifieds,
+                       long[] checksums, Uri[] uris, int count) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < count; i++) {
+            editor.putString(paths[i], toValue(resourceIds[i], sizes[i], lastModifieds[i], checksums[i], uris[i]));
+        }
+        editor.commit();
+    }
+
+    /**
+     * Builds the stored value of an entry. The size and modification time are read from the file
+     * @param file The file
+     * @param resourceId The ID of the sound resource the file was exported from
+     * @param checksum The CRC32 checksum of the file
+     * @param uri The Uri of the file in the media store, may be null
+     * @return The value
+     */
+    private String toValue(File file, int resourceId, long checksum, Uri uri) {
+        return toValue(resourceId, file.length(), file.lastModified(), checksum, uri);
+    }
+
+    /**
+     * Builds the stored value of an entry
+     * @param resourceId The ID of the sound resource the file was exported from
+     * @param size The size of the file in bytes
+     * @param lastModified The modification time of the file
+     * @param checksum The CRC32 checksum of the file
+     * @param uri The Uri of the file in the media store, may be null
+     * @return The value
+     */
+    private String toValue(int resourceId, long size, long lastModified, long checksum, Uri uri) {
+        return resourceId + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR
+                + checksum + SEPARATOR + versionKey + SEPARATOR + (uri == null ? "" : uri.toString());
+    }
+
+    /**
+     * Removes the entry of a file
+     * @param file The file
+     */
+    public void remove(File file) {
+        preferences.edit().remove(file.getAbsolutePath()).commit();
+    }
+
+    /**
+     * Checks whether an exported file is known to be up to date. That is the case when it was
+     * exported from the same resource by this version of the app and hasn't been changed since
+     * @param entry The entry of the file, may be null
+     * @param file The file
+     * @param resourceId The ID of the sound resource the file should contain
+     * @return True if the file is up to date and has a Uri in the media store
+     */
+    public boolean isUpToDate(Entry entry, File file, int resourceId) {
+        return isUpToDate(entry, file.length(), file.lastModified(), resourceId);
+    }
+
+    /**
+     * Checks whether an exported file is known to be up to date, given its current size and
+     * modification time, e.g. as the media store reports them
+     * @param entry The entry of the file, may be null
+     * @param size The current size of the file in bytes
+     * @param lastModified The current modification time of the file
+     * @param resourceId The ID of the sound resource the file should contain
+     * @return True if the file is up to date and has a Uri in the media store
+     */
+    public boolean isUpToDate(Entry entry, long size, long lastModified, int resourceId) {
+        return isUnchanged(entry, size, lastModified, resourceId)
+                && versionKey.equals(entry.getVersionKey());
+    }
+
+    /**
+     * Checks whether an exported file hasn't been touched since it was recorded, by any version
+     * of the app. Its content is then known from the checksum of the entry
+     * @param entry The entry of the file, may be null
+     * @param size The current size of the file in bytes
+     * @param lastModified The current modification time of the file
+     * @param resourceId The ID of the sound resource the file was exported from
+     * @return True if the file is unchanged and has a Uri in the media store
+     */
+    public boolean isUnchanged(Entry entry, long size, long lastModified, int resourceId) {
+        return entry != null && entry.getUri() != null
+                && entry.getResourceId() == resourceId
+                && entry.getSize() == size
+                && entry.getLastModified() == lastModified;
+    }
+
+    /**
+     * An exported file
+     */
+    public static class Entry {
+        /**
+         * The ID of the sound resource the file was exported from
+         */
+        private final int resourceId;
+        /**
+         * The size of the file in bytes
+         */
+        private final long size;
+        /**
+         * The modification time of the file
+         */
+        private final long lastModified;
+        /**
+         * The CRC32 checksum of the file
+         */
+        private final long checksum;
+        /**
+         * The version of the app that exported the file
+         */
+        private final String versionKey;
+        /**
+         * The Uri of the file in the media store, may be null
+         */
+        private final Uri uri;
+
+        /**
+         * Public constructor
+         * @param resourceId The ID of the sound resource the file was exported from
+         * @param size The size of the file in bytes
+         * @param lastModified The modification time of the file
+         * @param checksum The CRC32 checksum of the file
+         * @param versionKey The version of the app that exported the file
+         * @param uri The Uri of the file in the media store, may be null
+         */
+        public Entry(int resourceId, long size, long lastModified, long checksum, String versionKey, Uri uri) {
+            this.resourceId = resourceId;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.versionKey = versionKey;
+            this.uri = uri;
+        }
+
+        /**
+         * Gets the ID of the sound resource the file was exported from
+         * @return The resource ID
+         */
+        public int getResourceId() {
+            return resourceId;
+        }
+
+        /**
+         * Gets the size of the file
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the modification time of the file
+         * @return The time in milliseconds since the epoch
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Gets the CRC32 checksum of the file
+         * @return The checksum
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Gets the version of the app that exported the file
+         * @return The version key
+         */
+        public String getVersionKey() {
+            return versionKey;
+        }
+
+        /**
+         * Gets the Uri of the file in the media store
+         * @return The Uri, may be null
+         */
+        public Uri getUri() {
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.hjortur.soundboard.utilities;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The ExportQueue class saves ringtones and notification tones to the device in the background,
+ * as well as all the sounds of the board at once. The exports run one at a time on a single
+ * worker thread, so two requests for the same sound never write the same file at once. The
+ * progress and the result are delivered on the UI thread, where the message to the user is shown
+ * when the export is done.
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class ExportQueue {
+    /**
+     * The tag used for logging
+     */
+    private static final String TAG = "ExportQueue";
+
+    /**
+     * Interface definition for callbacks to be invoked on the UI thread while a tone is exported
+     */
+    public interface ExportListener {
+        /**
+         * Called while the sound file is being written
+         * @param bytesWritten The number of bytes that have been written
+         * @param totalBytes The size of the sound file, or -1 if it isn't known
+         */
+        void onExportProgress(long bytesWritten, long totalBytes);
+
+        /**
+         * Called when the tone has been saved and set
+         * @param uri The Uri of the tone in the media store
+         */
+        void onExportFinished(Uri uri);
+
+        /**
+         * Called when the tone could not be saved. Not called if the export was cancelled
+         * @param ex The reason
+         */
+        void onExportFailed(Exception ex);
+    }
+
+    /**
+     * Interface definition for callbacks to be invoked on the UI thread while a number of sounds
+     * are exported
+     */
+    public interface BulkExportListener {
+        /**
+         * Called while the sound files are being written
+         * @param soundsDone The number of sounds that have been handled
+         * @param soundCount The number of sounds that are exported
+         */
+        void onBulkExportProgress(int soundsDone, int soundCount);
+
+        /**
+         * Called when the sounds have been saved and added to the media store
+         * @param savedCount The number of sound files that were saved
+         */
+        void onBulkExportFinished(int savedCount);
+
+        /**
+         * Called when the sounds could not be saved. Not called if the export was cancelled
+         * @param ex The reason
+         */
+        void onBulkExportFailed(Exception ex);
+    }
+
+    /**
+     * The single instance of the queue
+     */
+    private static ExportQueue instance;
+
+    /**
+     * The executor that runs the exports one at a time
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /**
+     * Used for delivering the progress and the results on the UI thread
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Private constructor, use getInstance()
+     */
+    private ExportQueue() {
+    }
+
+    /**
+     * Gets the export queue
+     * @return The ExportQueue instance
+     */
+    public static synchronized ExportQueue getInstance() {
+        if (instance == null) {
+            instance = new ExportQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a tone to be saved to the device storage and set as the default tone
+     * @param context The context we are working in
+     * @param soundClipId The ID of the sound clip resource
+     * @param title The title of the sound clip
+     * @param toneType The type of tone we are setting (alert or ringtone)
+     * @param listener The listener that is notified on the UI thread, may be null
+     * @return The export, which can be cancelled
+     */
+    public Export export(Context context, int soundClipId, String title, int toneType, ExportListener listener) {
+        Export export = new Export(new ExportCallable(context.getApplicationContext(), soundClipId, title, toneType),
+                context.getApplicationContext(), toneType, listener);
+        executor.execute(export);
+        return export;
+    }
+
+    /**
+     * Queues a number of sounds to be saved to the device storage and added to the media store,
+     * without setting any of them as a tone
+     * @param context The context we are working in
+     * @param soundClipIds The IDs of the sound clip resources
+     * @param titles The titles of the sound clips
+     * @param listener The listener that is notified on the UI thread, may be null
+     * @return The export, which can be cancelled
+     */
+    public BulkExport exportAll(Context context, int[] soundClipIds, String[] titles, BulkExportListener listener) {
+        BulkExport export = new BulkExport(new BulkExportCallable(context.getApplicationContext(), soundClipIds, titles),
+                context.getApplicationContext(), soundClipIds.length, listener);
+        executor.execute(export);
+        return export;
+    }
+
+    /**
+     * Gets the cause of a failed export
+     * @param ex The exception thrown by get()
+     * @return The cause, or null if the export was cancelled while a file was being written
+     */
+    private static Throwable getFailure(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof InterruptedIOException) {
+            // Cancelled while the file was being written
+            return null;
+        }
+        Log.e(TAG, "Could not export sound", cause);
+        return cause;
+    }
+
+    /**
+     * Gets the message shown to the user when a tone has been set
+     * @param toneType The type of tone
+     * @return The message
+     */
+    private static CharSequence getFinishedMessage(int toneType) {
+        switch(toneType){
+            case RingtoneManager.TYPE_NOTIFICATION:
+                return "Notification tone set";
+            case RingtoneManager.TYPE_RINGTONE:
+                return "Ringtone set";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * A queued export. It can be cancelled with cancel(true), which stops the copy if it has
+     * started and leaves no partial file behind
+     */
+    public class Export extends FutureTask<Uri> {
+        /**
+         * The context used for showing the message
+         */
+        private final Context context;
+        /**
+         * The type of tone that is exported
+         */
+        private final int toneType;
+        /**
+         * The listener that is notified on the UI thread, may be null
+         */
+        private final ExportListener listener;
+
+        /**
+         * Public constructor
+         * @param callable The work
+         * @param context The context used for showing the message
+         * @param toneType The type of tone that is exported
+         * @param listener The listener that is notified on the UI thread, may be null
+         */
+        Export(ExportCallable callable, Context context, int toneType, ExportListener listener) {
+            super(callable);
+            this.context = context;
+            this.toneType = toneType;
+            this.listener = listener;
+            callable.export = this;
+        }
+
+        /**
+         * Reports the progress of the copy on the UI thread
+         * @param bytesWritten The number of bytes that have been written
+         * @param totalBytes The size of the sound file, or -1 if it isn't known
+         */
+        void postProgress(final long bytesWritten, final long totalBytes) {
+            if (listener == null) {
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        listener.onExportProgress(bytesWritten, totalBytes);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        /**
+         * Shows the result to the user and notifies the listener. Runs on the UI thread
+         */
+        private void deliver() {
+            Uri uri;
+            try {
+                uri = get();
+            } catch (CancellationException ex) {
+                return;
+            } catch (InterruptedException ex) {
+                return;
+            } catch (ExecutionException ex) {
+                Throwable cause = getFailure(ex);
+                if (cause == null) {
+                    return;
+                }
+                Toast.makeText(context, "An error occurred: " + cause.getMessage(), Toast.LENGTH_SHORT).show();
+                if (listener != null) {
+                    listener.onExportFailed(cause instanceof Exception ? (Exception)cause : ex);
+                }
+                return;
+            }
+            Toast.makeText(context, getFinishedMessage(toneType), Toast.LENGTH_SHORT).show();
+            if (listener != null) {
+                listener.onExportFinished(uri);
+            }
+        }
+    }
+
+    /**
+     * A queued export of a number of sounds. It can be cancelled with cancel(true), which stops
+     * it after the file that is being written. The files written until then are kept, but they
+     * aren't added to the media store until the sounds are exported again
+     */
+    public class BulkExport extends FutureTask<Integer> {
+        /**
+         * The context used for showing the message
+         */
+        private final Context context;
+        /**
+         * The number of sounds that are exported
+         */
+        private final int soundCount;
+        /**
+         * The listener that is notified on the UI thread, may be null
+         */
+        private final BulkExportListener listener;
+
+        /**
+         * Public constructor
+         * @param callable The work
+         * @param context The context used for showing the message
+         * @param soundCount The number of sounds that are exported
+         * @param listener The listener that is notified on the UI thread, may be null
+         */
+        BulkExport(BulkExportCallable callable, Context context, int soundCount, BulkExportListener listener) {
+            super(callable);
+            this.context = context;
+            this.soundCount = soundCount;
+            this.listener = listener;
+            callable.export = this;
+        }
+
+        /**
+         * Reports the progress on the UI thread
+         * @param soundsDone The number of sounds that have been handled
+         */
+        void postProgress(final int soundsDone) {
+            if (listener == null) {
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        listener.onBulkExportProgress(soundsDone, soundCount);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        /**
+         * Shows the result to the user and notifies the listener. Runs on the UI thread
+         */
+        private void deliver() {
+            int savedCount;
+            try {
+                savedCount = get();
+            } catch (CancellationException ex) {
+                return;
+            } catch (InterruptedException ex) {
+                return;
+            } catch (ExecutionException ex) {
+                Throwable cause = getFailure(ex);
+                if (cause == null) {
+                    return;
+                }
+                Toast.makeText(context, "An error occurred: " + cause.getMessage(), Toast.LENGTH_SHORT).show();
+                if (listener != null) {
+                    listener.onBulkExportFailed(cause instanceof Exception ? (Exception)cause : ex);
+                }
+                return;
+            }
+            Toast.makeText(context, savedCount + " sounds saved", Toast.LENGTH_SHORT).show();
+            if (listener != null) {
+                listener.onBulkExportFinished(savedCount);
+            }
+        }
+    }
+
+    /**
+     * The work of a bulk export, run on the worker thread
+     */
+    private static class BulkExportCallable implements Callable<Integer>, StreamUtilities.ProgressListener {
+        /**
+         * The application context
+         */
+        private final Context context;
+        /**
+         * The IDs of the sound clip resources
+         */
+        private final int[] soundClipIds;
+        /**
+         * The titles of the sound clips
+         */
+        private final String[] titles;
+        /**
+         * The export the work belongs to
+         */
+        BulkExport export;
+
+        /**
+         * Public constructor
+         * @param context The application context
+         * @param soundClipIds The IDs of the sound clip resources
+         * @param titles The titles of the sound clips
+         */
+        BulkExportCallable(Context context, int[] soundClipIds, String[] titles) {
+            this.context = context;
+            this.soundClipIds = soundClipIds;
+            this.titles = titles;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            return RingtoneUtilities.exportAllSounds(context, soundClipIds, titles, this);
+        }
+
+        @Override
+        public void onProgress(long soundsDone) {
+            export.postProgress((int)soundsDone);
+        }
+    }
+
+    /**
+     * The work of an export, run on the worker thread
+     */
+    private static class ExportCallable implements Callable<Uri>, StreamUtilities.ProgressListener {
+        /**
+         * Progress is reported at most once per this many bytes, so the UI thread isn't flooded
+         */
+        private static final long PROGRESS_INTERVAL = 64 * 1024;
+
+        /**
+         * The application context
+         */
+        private final Context context;
+        /**
+         * The ID of the sound clip resource
+         */
+        private final int soundClipId;
+        /**
+         * The title of the sound clip
+         */
+        private final String title;
+        /**
+         * The type of tone we are setting
+         */
+        private final int toneType;
+        /**
+         * The export the work belongs to
+         */
+        Export export;
+        /**
+         * The size of the sound file, or -1 if it isn't known
+         */
+        private long totalBytes = -1;
+        /**
+         * The number of bytes when the progress was last reported
+         */
+        private long reportedBytes;
+
+        /**
+         * Public constructor
+         * @param context The application context
+         * @param soundClipId The ID of the sound clip resource
+         * @param title The title of the sound clip
+         * @param toneType The type of tone we are setting
+         */
+        ExportCallable(Context context, int soundClipId, String title, int toneType) {
+            this.context = context;
+            this.soundClipId = soundClipId;
+            this.title = title;
+            this.toneType = toneType;
+        }
+
+        @Override
+        public Uri call() throws IOException {
+            totalBytes = getResourceLength();
+            return RingtoneUtilities.exportTone(context, soundClipId, title, toneType, this);
+        }
+
+        @Override
+        public void onProgress(long bytesCopied) {
+            if (bytesCopied - reportedBytes >= PROGRESS_INTERVAL || bytesCopied == totalBytes) {
+                reportedBytes = bytesCopied;
+                export.postProgress(bytesCopied, totalBytes);
+            }
+        }
+
+        /**
+         * Gets the size of the sound resource
+         * @return The size in bytes, or -1 if it isn't known
+         */
+        private long getResourceLength() {
+            try {
+                AssetFileDescriptor descriptor = context.getResources().openRawResourceFd(soundClipId);
+                if (descriptor == null) {
+                    return -1;
+                }
+                long length = descriptor.getLength();
+                descriptor.close();
+                return length;
+            } catch (Resources.NotFoundException ex) {
+                return -1;
+            } catch (IOException ex) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.hjortur.soundboard.utilities;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+/**
+ * Helper methods for information about the installed application
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class PackageUtilities {
+    /**
+     * Private constructor, this class only contains static methods
+     */
+    private PackageUtilities() {
+    }
+
+    /**
+     * Gets a key that changes every time the application is installed or updated, and with it
+     * the sound resources. Used for throwing away files that were made from older resources
+     * @param context The context
+     * @return The version key
+     */
+    public static String getVersionKey(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode + "_" + Long.toHexString(info.lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException ex) {
+            // We are looking up our own package so this should never happen
+            return "0";
+        }
+    }
+}
@@ -1,20 +1,28 @@
 package com.hjortur.soundboard.utilities;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
 import android.provider.Settings;
-import android.widget.Toast;
+import android.util.Log;
 
 import com.hjortur.soundboard.R;
+import com.hjortur.soundboard.catalog.SoundCatalog;
 import com.hjortur.soundboard.controls.SquareImageButton;
 
 import java.io.File;
@@ -22,6 +30,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * A class that is used to save a ringtone to the device
@@ -29,69 +45,913 @@ import java.io.IOException;
  */
 public class RingtoneUtilities {
     /**
-     * Saves a ringtone to the device storage
+     * The tag used for logging
+     */
+    private static final String TAG = "RingtoneUtilities";
+    /**
+     * The version of Android where apps write to the shared storage through the media store.
+     * Build.VERSION_CODES.Q isn't available to the SDK we compile against
+     */
+    private static final int SCOPED_STORAGE_VERSION = 29;
+    /**
+     * The column holding the directory of a media store entry, relative to the storage volume.
+     * Added in Android 10, so the constant isn't available to the SDK we compile against
+     */
+    private static final String RELATIVE_PATH = "relative_path";
+    /**
+     * The column that hides a media store entry from other apps while it's being written.
+     * Added in Android 10, so the constant isn't available to the SDK we compile against
+     */
+    private static final String IS_PENDING = "is_pending";
+    /**
+     * The directory of the exported sounds in the media store, relative to the storage volume
+     */
+    private static final String MEDIA_STORE_DIRECTORY = "Ringtones/GenericAndroidSoundboard/";
+
+    /**
+     * Saves a ringtone to the device storage. The work is done in the background by the
+     * ExportQueue, a message is shown when it's done
      * @param button The SquareImageButton instance that is being used
      * @param toneType The type of tone we are setting (alert or ringtone)
+     * @return The export, which can be cancelled
      */
-    public static void setTone(SquareImageButton button, int toneType) {
-        // Get the context for the image button
-        Context context = button.getContext();
-        // The internal uri for our resource
-        Uri newUri = null;
+    public static ExportQueue.Export setTone(SquareImageButton button, int toneType) {
+        return setTone(button.getContext(), button.getSoundClipId(), button.getTitle(), toneType);
+    }
+
+    /**
+     * Saves a ringtone to the device storage. The work is done in the background by the
+     * ExportQueue, a message is shown when it's done
+     * @param context The context we are working in
+     * @param soundClipId The ID of the sound clip resource
+     * @param title The title of the sound clip
+     * @param toneType The type of tone we are setting (alert or ringtone)
+     * @return The export, which can be cancelled
+     */
+    public static ExportQueue.Export setTone(Context context, int soundClipId, String title, int toneType) {
+        return ExportQueue.getInstance().export(context, soundClipId, title, toneType, null);
+    }
+
+    /**
+     * Saves all the sounds of a catalog to the device storage, so they can be picked as tones.
+     * The work is done in the background by the ExportQueue
+     * @param context The context we are working in
+     * @param catalog The catalog of the sounds
+     * @param listener The listener that is notified on the UI thread, may be null
+     * @return The export, which can be cancelled
+     */
+    public static ExportQueue.BulkExport exportAll(Context context, SoundCatalog catalog,
+                                                   ExportQueue.BulkExportListener listener) {
+        int count = catalog.getCount();
+        int[] soundClipIds = new int[count];
+        String[] titles = new String[count];
+        for (int i = 0; i < count; i++) {
+            soundClipIds[i] = catalog.getSoundId(i);
+            titles[i] = catalog.getName(i);
+        }
+        return ExportQueue.getInstance().exportAll(context, soundClipIds, titles, listener);
+    }
+
+    /**
+     * Saves a number of sounds to the device storage and adds them to the media store. All the
+     * files are written first, then the media store is brought up to date with one query and a
+     * single batch of inserts, instead of a query and an insert for every sound. This blocks
+     * while the files are written, so it must not be called from the UI thread
+     * @param context The context we are working in
+     * @param soundClipIds The IDs of the sound clip resources
+     * @param titles The titles of the sound clips
+     * @param listener The listener that is notified with the number of sounds that have been
+     *                 saved so far, may be null
+     * @return The number of sounds that were saved
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sounds could not be saved
+     */
+    static int exportAllSounds(Context context, int[] soundClipIds, String[] titles,
+                               StreamUtilities.ProgressListener listener) throws IOException {
+        if (Build.VERSION.SDK_INT >= SCOPED_STORAGE_VERSION) {
+            int streamedCount = streamAllToMediaStore(context, soundClipIds, titles, listener);
+            if (streamedCount != -1) {
+                return streamedCount;
+            }
+        }
+        return saveAllToStorage(context, soundClipIds, titles, listener);
+    }
+
+    /**
+     * Saves a number of sounds to our directory on the external storage and adds them to the
+     * media store. This is how sounds are exported before Android 10, and the fallback after it
+     * when the media store doesn't take the sounds directly
+     * @param context The context we are working in
+     * @param soundClipIds The IDs of the sound clip resources
+     * @param titles The titles of the sound clips
+     * @param listener The listener that is notified with the number of sounds that have been
+     *                 saved so far, may be null
+     * @return The number of sounds that were saved
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sounds could not be saved
+     */
+    static int saveAllToStorage(Context context, int[] soundClipIds, String[] titles,
+                                StreamUtilities.ProgressListener listener) throws IOException {
         String path = getDirectoryPath();
+        ContentResolver resolver = context.getContentResolver();
+        ExportManifest manifest = new ExportManifest(context);
+        // The media store entries of every file that is already in our directory
+        Map<String, Uri> existingUris = getAudioUrisInDirectory(path, resolver);
+        Uri contentUri = MediaStore.Audio.Media.getContentUriForPath(path);
 
-        Resources resources = (context != null) ? context.getResources() : null;
-        if(resources != null) {
-            String entryName = context.getResources().getResourceEntryName(button.getSoundClipId());
-            File file = new File(path + "/", entryName + ".mp3");
+        int count = soundClipIds.length;
+        File[] files = new File[count];
+        int[] resourceIds = new int[count];
+        long[] checksums = new long[count];
+        Uri[] uris = new Uri[count];
+        int fileCount = 0;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        // The index of the file each insert operation belongs to
+        int[] insertedFiles = new int[count];
+        int insertCount = 0;
+        // The paths of the files that have been handled, a clip may be used by more than one sound
+        HashSet<String> savedPaths = new HashSet<String>();
 
+        for (int i = 0; i < count; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("The export was cancelled");
+            }
+            if (listener != null) {
+                listener.onProgress(i);
+            }
+            String entryName = context.getResources().getResourceEntryName(soundClipIds[i]);
+            File file = new File(path + "/", entryName + ".mp3");
+            if (!savedPaths.add(file.getAbsolutePath())) {
+                // Two sounds share the same clip, it has been saved already
+                continue;
+            }
             Uri uri = Uri.parse("android.resource://" + context.getPackageName() + "/raw/" + entryName);
-            ContentResolver resolver = context.getContentResolver();
-            if(!file.exists()){
-                newUri = saveFileAndAddToMediaStore(button, context, file, uri, resolver);
+            ExportManifest.Entry entry = manifest.get(file);
+            long checksum = -1;
+            if (manifest.isUpToDate(entry, file, soundClipIds[i])) {
+                checksum = entry.getChecksum();
+            } else if (file.exists()) {
+                checksum = getChecksumIfSameContent(file, uri, resolver);
+                if (checksum == -1) {
+                    file.delete();
+                }
+            }
+            String filePath = file.getAbsolutePath();
+            if (!file.exists()) {
+                AssetFileDescriptor assetFileDescriptor;
+                try {
+                    assetFileDescriptor = resolver.openAssetFileDescriptor(uri, "r");
+                } catch (FileNotFoundException e) {
+                    assetFileDescriptor = null;
+                }
+                saveFileToDevice(file, assetFileDescriptor, null);
+                checksum = getChecksum(file);
+                if (existingUris.remove(filePath) != null) {
+                    // The entry describes the old content of the file
+                    operations.add(ContentProviderOperation.newDelete(contentUri)
+                            .withSelection(MediaStore.MediaColumns.DATA + " = ?", new String[] { filePath })
+                            .build());
+                }
+            }
+            files[fileCount] = file;
+            resourceIds[fileCount] = soundClipIds[i];
+            checksums[fileCount] = checksum;
+            uris[fileCount] = existingUris.get(filePath);
+            if (uris[fileCount] == null) {
+                operations.add(ContentProviderOperation.newInsert(contentUri)
+                        .withValues(getMediaStoreValues(titles[i], file))
+                        .build());
+                insertedFiles[insertCount++] = fileCount;
             }
+            fileCount++;
+        }
+        if (listener != null) {
+            listener.onProgress(count);
+        }
+
+        if (!operations.isEmpty()) {
+            ContentProviderResult[] results;
             try {
-                if(newUri == null){
-                    newUri = getAudioUriFromFilePath(file.getAbsolutePath(), resolver);
+                results = resolver.applyBatch(MediaStore.AUTHORITY, operations);
+            } catch (RemoteException ex) {
+                throw new IOException("The sound files could not be added to the media store: " + ex.getMessage());
+            } catch (OperationApplicationException ex) {
+                throw new IOException("The sound files could not be added to the media store: " + ex.getMessage());
+            }
+            // The inserts are the operations with a Uri in their result, in the order they were added
+            int inserted = 0;
+            for (ContentProviderResult result : results) {
+                if (result.uri != null && inserted < insertCount) {
+                    uris[insertedFiles[inserted++]] = result.uri;
                 }
-                if(newUri != null){
-                    RingtoneManager.setActualDefaultRingtoneUri(context,
-                            toneType, newUri);
-                    Settings.System.putString(resolver, getStringByType(toneType),
-                            newUri.toString());
-                    //show the message to the user
-                    CharSequence text = "";
-                    switch(toneType){
-                        case RingtoneManager.TYPE_NOTIFICATION:
-                            text = "Notification tone set";
-                            break;
-                        case RingtoneManager.TYPE_RINGTONE:
-                            text = "Ringtone set";
-                            break;
+            }
+        }
+        manifest.putAll(files, resourceIds, checksums, uris, fileCount);
+        return fileCount;
+    }
+
+    /**
+     * Saves a number of sounds straight into the media store. The rows of our directory are
+     * read with one query, the stale rows are removed and pending rows inserted for the sounds
+     * that have to be saved in a single batch, each sound is copied into its row in a single pass,
+     * and the rows are published with a second batch. The manifest is written once at the end.
+     * Only works on Android 10 and later
+     * @param context The context we are working in
+     * @param soundClipIds The IDs of the sound clip resources
+     * @param titles The titles of the sound clips
+     * @param listener The listener that is notified with the number of sounds that have been
+     *                 saved so far, may be null
+     * @return The number of sounds that were saved, or -1 if the media store doesn't accept
+     *         the entries, in which case the files should be written to the storage instead
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sounds could not be saved
+     */
+    private static int streamAllToMediaStore(Context context, int[] soundClipIds, String[] titles,
+                                             StreamUtilities.ProgressListener listener) throws IOException {
+        Resources resources = context.getResources();
+        ContentResolver resolver = context.getContentResolver();
+        Uri contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        ExportManifest manifest = new ExportManifest(context);
+        if (listener != null) {
+            listener.onProgress(0);
+        }
+        // The rows that are already in our directory, by their file name
+        Map<String, ArrayList<MediaStoreRow>> existingRows = getStreamedSounds(null, contentUri, resolver);
+
+        int count = soundClipIds.length;
+        String[] paths = new String[count];
+        String[] displayNames = new String[count];
+        int[] resourceIds = new int[count];
+        long[] sizes = new long[count];
+        long[] lastModifieds = new long[count];
+        long[] checksums = new long[count];
+        Uri[] uris = new Uri[count];
+        int soundCount = 0;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        // The index of the sound each insert operation belongs to
+        int[] insertedSounds = new int[count];
+        int insertCount = 0;
+        // The paths of the sounds that have been handled, a clip may be used by more than one sound
+        HashSet<String> savedPaths = new HashSet<String>();
+
+        for (int i = 0; i < count; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("The export was cancelled");
+            }
+            String displayName = resources.getResourceEntryName(soundClipIds[i]) + ".mp3";
+            String path = MEDIA_STORE_DIRECTORY + displayName;
+            if (!savedPaths.add(path)) {
+                // Two sounds share the same clip, it has been handled already
+                continue;
+            }
+            ArrayList<MediaStoreRow> rows = existingRows.get(displayName);
+            MediaStoreRow savedRow = findSavedRow(resources, soundClipIds[i], manifest, manifest.get(path),
+                    rows, resolver);
+            if (rows != null) {
+                for (MediaStoreRow row : rows) {
+                    if (row != savedRow) {
+                        operations.add(ContentProviderOperation.newDelete(row.uri).build());
                     }
-                    int duration = Toast.LENGTH_SHORT;
+                }
+            }
+            paths[soundCount] = path;
+            displayNames[soundCount] = displayName;
+            resourceIds[soundCount] = soundClipIds[i];
+            if (savedRow != null) {
+                sizes[soundCount] = savedRow.size;
+                lastModifieds[soundCount] = savedRow.lastModified;
+                checksums[soundCount] = savedRow.checksum;
+                uris[soundCount] = savedRow.uri;
+            } else {
+                ContentValues values = getMediaStoreValues(titles[i]);
+                values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+                values.put(RELATIVE_PATH, MEDIA_STORE_DIRECTORY);
+                values.put(IS_PENDING, 1);
+                operations.add(ContentProviderOperation.newInsert(contentUri).withValues(values).build());
+                insertedSounds[insertCount++] = soundCount;
+            }
+            soundCount++;
+        }
 
-                    Toast toast = Toast.makeText(context, text, duration);
-                    toast.show();
+        if (!operations.isEmpty()) {
+            ContentProviderResult[] results;
+            try {
+                results = resolver.applyBatch(MediaStore.AUTHORITY, operations);
+            } catch (IllegalArgumentException ex) {
+                return -1;
+            } catch (SecurityException ex) {
+                return -1;
+            } catch (RemoteException ex) {
+                return -1;
+            } catch (OperationApplicationException ex) {
+                return -1;
+            }
+            // The inserts are the operations with a Uri in their result, in the order they were added
+            int inserted = 0;
+            for (ContentProviderResult result : results) {
+                if (result.uri != null && inserted < insertCount) {
+                    uris[insertedSounds[inserted++]] = result.uri;
                 }
+            }
+            if (inserted < insertCount) {
+                deleteFromMediaStore(uris, insertedSounds, inserted, resolver);
+                return -1;
+            }
+        }
 
-            } catch (Throwable t) {
-                Toast toast = Toast.makeText(context, "An error occurred: " + t.getMessage(), Toast.LENGTH_SHORT);
-                toast.show();
+        // Every sound that doesn't have to be written counts as saved
+        int savedCount = count - insertCount;
+        if (listener != null) {
+            listener.onProgress(savedCount);
+        }
+        if (insertCount == 0) {
+            manifest.putAll(paths, resourceIds, sizes, lastModifieds, checksums, uris, soundCount);
+            return soundCount;
+        }
+        // Set when every new row has been written and published
+        boolean saved = false;
+        try {
+            for (int i = 0; i < insertCount; i++) {
+                int sound = insertedSounds[i];
+                checksums[sound] = writeToMediaStore(resources, resourceIds[sound], uris[sound], resolver, null);
+                if (listener != null) {
+                    listener.onProgress(++savedCount);
+                }
+            }
+            operations.clear();
+            for (int i = 0; i < insertCount; i++) {
+                operations.add(ContentProviderOperation.newUpdate(uris[insertedSounds[i]])
+                        .withValue(IS_PENDING, 0)
+                        .build());
+            }
+            try {
+                resolver.applyBatch(MediaStore.AUTHORITY, operations);
+            } catch (RemoteException ex) {
+                throw new IOException("The sounds could not be published in the media store: " + ex.getMessage());
+            } catch (OperationApplicationException ex) {
+                throw new IOException("The sounds could not be published in the media store: " + ex.getMessage());
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                // Don't leave pending entries with partial files behind
+                deleteFromMediaStore(uris, insertedSounds, insertCount, resolver);
             }
         }
+
+        // The size and modification time of the new rows are only known once they are published
+        Map<String, ArrayList<MediaStoreRow>> savedRows = getStreamedSounds(null, contentUri, resolver);
+        for (int i = 0; i < insertCount; i++) {
+            int sound = insertedSounds[i];
+            // Left unknown if the row isn't found, the next export then compares it with the resource
+            sizes[sound] = -1;
+            ArrayList<MediaStoreRow> rows = savedRows.get(displayNames[sound]);
+            if (rows != null) {
+                long id = ContentUris.parseId(uris[sound]);
+                for (MediaStoreRow row : rows) {
+                    if (row.id == id) {
+                        sizes[sound] = row.size;
+                        lastModifieds[sound] = row.lastModified;
+                    }
+                }
+            }
+        }
+        manifest.putAll(paths, resourceIds, sizes, lastModifieds, checksums, uris, soundCount);
+        return soundCount;
     }
 
     /**
-     * Saves the sound file to the device storage
-     * @param button The image button that was clicked
+     * Saves a ringtone to the device storage and sets it as the default tone. This blocks
+     * while the file is written, so it must not be called from the UI thread
      * @param context The context we are working in
+     * @param soundClipId The ID of the sound clip resource
+     * @param title The title of the sound clip
+     * @param toneType The type of tone we are setting (alert or ringtone)
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @return The Uri of the tone in the media store
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the tone could not be saved
+     */
+    static Uri exportTone(Context context, int soundClipId, String title, int toneType,
+                          StreamUtilities.ProgressListener listener) throws IOException {
+        Uri newUri = null;
+        if (Build.VERSION.SDK_INT >= SCOPED_STORAGE_VERSION) {
+            newUri = streamToMediaStore(context, soundClipId, title, listener);
+        }
+        if (newUri == null) {
+            newUri = saveToStorage(context, soundClipId, title, listener);
+        }
+        setDefaultTone(context, toneType, newUri);
+        return newUri;
+    }
+
+    /**
+     * Saves a sound to our directory on the external storage and adds it to the media store.
+     * This is how sounds are exported before Android 10, and the fallback after it when the
+     * media store doesn't take the sound directly
+     * @param context The context we are working in
+     * @param soundClipId The ID of the sound clip resource
+     * @param title The title of the sound clip
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @return The Uri of the sound in the media store
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sound could not be saved
+     */
+    static Uri saveToStorage(Context context, int soundClipId, String title,
+                             StreamUtilities.ProgressListener listener) throws IOException {
+        // The internal uri for our resource
+        Uri newUri = null;
+        String path = getDirectoryPath();
+
+        String entryName = context.getResources().getResourceEntryName(soundClipId);
+        File file = new File(path + "/", entryName + ".mp3");
+
+        Uri uri = Uri.parse("android.resource://" + context.getPackageName() + "/raw/" + entryName);
+        ContentResolver resolver = context.getContentResolver();
+        ExportManifest manifest = new ExportManifest(context);
+        ExportManifest.Entry entry = manifest.get(file);
+        boolean upToDate = manifest.isUpToDate(entry, file, soundClipId);
+        // The media store Uri the manifest remembers for the file, it's checked before it's used
+        Uri cachedUri = (entry != null && entry.getResourceId() == soundClipId) ? entry.getUri() : null;
+        // The checksum of the file, or -1 if it has to be written
+        long checksum = -1;
+        if (upToDate) {
+            // Nothing has changed since this file was exported, so there is nothing to read or write.
+            // Only the cached Uri is checked below, with a cheap lookup by its primary key
+            checksum = entry.getChecksum();
+        } else if (file.exists()) {
+            // The file may be from an older version of the app, or truncated, so check its content
+            checksum = getChecksumIfSameContent(file, uri, resolver);
+            if (checksum == -1) {
+                deleteFromMediaStore(file, resolver);
+                file.delete();
+                cachedUri = null;
+            }
+        }
+        if(!file.exists()){
+            newUri = saveFileAndAddToMediaStore(title, file, uri, resolver, listener);
+            checksum = getChecksum(file);
+        } else if (cachedUri != null && isMediaStoreEntryOf(cachedUri, file, resolver)) {
+            newUri = cachedUri;
+        }
+        if(newUri == null){
+            // The media store entry was removed or never cached, look it up by the exact path
+            newUri = getAudioUriFromFilePath(file.getAbsolutePath(), resolver);
+        }
+        if(newUri == null){
+            newUri = insertSoundFileToMediaStore(title, file, resolver);
+        }
+        if(newUri == null){
+            throw new IOException("The sound file could not be added to the media store");
+        }
+        if (!upToDate || !newUri.equals(entry.getUri())) {
+            manifest.put(file, soundClipId, checksum, newUri);
+        }
+        return newUri;
+    }
+
+    /**
+     * Sets a tone in the media store as the default tone, unless the export has been cancelled
+     * @param context The context we are working in
+     * @param toneType The type of tone we are setting (alert or ringtone)
+     * @param uri The Uri of the tone in the media store
+     * @throws InterruptedIOException If the thread was interrupted
+     */
+    private static void setDefaultTone(Context context, int toneType, Uri uri) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The export was cancelled");
+        }
+        RingtoneManager.setActualDefaultRingtoneUri(context,
+                toneType, uri);
+        Settings.System.putString(context.getContentResolver(), getStringByType(toneType),
+                uri.toString());
+    }
+
+    /**
+     * Saves a sound clip straight into the media store, in a single pass. A pending entry is
+     * inserted first and the resource is copied into it, so no file is written to the external
+     * storage by us and the file doesn't have to be read again. The checksum of the sound is
+     * calculated while it is copied and recorded in the export manifest, so an export that has
+     * been done before is found without reading the saved file. Only works on Android 10 and later
+     * @param context The context we are working in
+     * @param soundClipId The ID of the sound clip resource
+     * @param title The title of the sound clip
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @return The Uri of the sound in the media store, or null if the media store doesn't accept
+     *         the entry, in which case the file should be written to the storage instead
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sound could not be saved
+     */
+    private static Uri streamToMediaStore(Context context, int soundClipId, String title,
+                                          StreamUtilities.ProgressListener listener) throws IOException {
+        Resources resources = context.getResources();
+        ContentResolver resolver = context.getContentResolver();
+        String displayName = resources.getResourceEntryName(soundClipId) + ".mp3";
+        Uri contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        // There is no File for the sound, so it's recorded by its path in the media store
+        String manifestPath = MEDIA_STORE_DIRECTORY + displayName;
+        ExportManifest manifest = new ExportManifest(context);
+        ExportManifest.Entry entry = manifest.get(manifestPath);
+        ArrayList<MediaStoreRow> rows = getStreamedSounds(displayName, contentUri, resolver).get(displayName);
+        MediaStoreRow savedRow = findSavedRow(resources, soundClipId, manifest, entry, rows, resolver);
+        if (rows != null) {
+            for (MediaStoreRow row : rows) {
+                if (row != savedRow) {
+                    resolver.delete(row.uri, null, null);
+                }
+            }
+        }
+        if (savedRow != null) {
+            if (!savedRow.recorded) {
+                manifest.put(manifestPath, soundClipId, savedRow.size, savedRow.lastModified,
+                        savedRow.checksum, savedRow.uri);
+            }
+            return savedRow.uri;
+        }
+
+        ContentValues values = getMediaStoreValues(title);
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(RELATIVE_PATH, MEDIA_STORE_DIRECTORY);
+        values.put(IS_PENDING, 1);
+        Uri newUri;
+        try {
+            newUri = resolver.insert(contentUri, values);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        } catch (SecurityException ex) {
+            return null;
+        }
+        if (newUri == null) {
+            return null;
+        }
+
+        // Set when the whole sound has been written
+        boolean saved = false;
+        // The checksum of the sound, calculated while it is copied
+        long checksum;
+        try {
+            checksum = writeToMediaStore(resources, soundClipId, newUri, resolver, listener);
+            ContentValues published = new ContentValues();
+            published.put(IS_PENDING, 0);
+            resolver.update(newUri, published, null, null);
+            saved = true;
+        } finally {
+            if (!saved) {
+                // Don't leave a pending entry with a partial file behind
+                resolver.delete(newUri, null, null);
+            }
+        }
+        recordStreamedSound(manifest, manifestPath, soundClipId, checksum, newUri, resolver);
+        return newUri;
+    }
+
+    /**
+     * Opens a sound resource as a file descriptor into the APK
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @return The file descriptor, or null if the resource is compressed in the APK and has to
+     *         be read as a stream
+     */
+    private static AssetFileDescriptor openUncompressedResource(Resources resources, int soundClipId) {
+        try {
+            return resources.openRawResourceFd(soundClipId);
+        } catch (Resources.NotFoundException ex) {
+            // Thrown for resources that are compressed in the APK
+            return null;
+        }
+    }
+
+    /**
+     * Copies a sound resource to a file and calculates its checksum on the way. An uncompressed
+     * resource is read straight from the APK, a compressed one is inflated through a stream
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @param outputStream The file to write to
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @return The CRC32 checksum of the sound
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sound could not be copied
+     */
+    private static long copyResource(Resources resources, int soundClipId, FileOutputStream outputStream,
+                                     StreamUtilities.ProgressListener listener) throws IOException {
+        CRC32 crc = new CRC32();
+        AssetFileDescriptor assetFileDescriptor = openUncompressedResource(resources, soundClipId);
+        if (assetFileDescriptor == null) {
+            InputStream inputStream = new CheckedInputStream(resources.openRawResource(soundClipId), crc);
+            try {
+                // The resource has to be inflated, so it's read in large blocks instead of a kernel copy
+                StreamUtilities.copy(inputStream, outputStream, StreamUtilities.TRANSFER_BUFFER_SIZE, listener);
+            } finally {
+                inputStream.close();
+            }
+            return crc.getValue();
+        }
+        FileInputStream inputStream = assetFileDescriptor.createInputStream();
+        try {
+            long start = assetFileDescriptor.getStartOffset();
+            long length = getLength(assetFileDescriptor, inputStream);
+            long copied = StreamUtilities.transfer(inputStream.getChannel(), start, length,
+                    outputStream.getChannel(), crc, listener);
+            if (copied != length) {
+                throw new IOException("Only " + copied + " of " + length + " bytes of the sound file were saved");
+            }
+        } finally {
+            inputStream.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Gets the length of a sound resource without reading it
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @return The length in bytes, or -1 if the resource is compressed in the APK and its length
+     *         isn't known until it has been inflated
+     * @throws IOException If the resource could not be opened
+     */
+    private static long getResourceLength(Resources resources, int soundClipId) throws IOException {
+        AssetFileDescriptor assetFileDescriptor = openUncompressedResource(resources, soundClipId);
+        if (assetFileDescriptor == null) {
+            return -1;
+        }
+        FileInputStream inputStream = assetFileDescriptor.createInputStream();
+        try {
+            return getLength(assetFileDescriptor, inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Gets the length of the region of a file that an asset file descriptor covers
+     * @param assetFileDescriptor The descriptor
+     * @param inputStream A stream opened on the descriptor
+     * @return The length in bytes
+     * @throws IOException If the size of the file could not be read
+     */
+    private static long getLength(AssetFileDescriptor assetFileDescriptor, FileInputStream inputStream) throws IOException {
+        long length = assetFileDescriptor.getLength();
+        if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+            length = inputStream.getChannel().size() - assetFileDescriptor.getStartOffset();
+        }
+        return length;
+    }
+
+    /**
+     * Calculates the checksum of a sound resource
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @return The CRC32 checksum
+     * @throws IOException If the resource could not be read
+     */
+    private static long getResourceChecksum(Resources resources, int soundClipId) throws IOException {
+        AssetFileDescriptor assetFileDescriptor = openUncompressedResource(resources, soundClipId);
+        if (assetFileDescriptor == null) {
+            InputStream inputStream = resources.openRawResource(soundClipId);
+            try {
+                return StreamUtilities.checksum(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+        return getChecksum(assetFileDescriptor);
+    }
+
+    /**
+     * Calculates the checksum of the region of a file that an asset file descriptor covers, and
+     * closes the descriptor
+     * @param assetFileDescriptor The descriptor
+     * @return The CRC32 checksum
+     * @throws IOException If the file could not be read
+     */
+    private static long getChecksum(AssetFileDescriptor assetFileDescriptor) throws IOException {
+        FileInputStream inputStream = assetFileDescriptor.createInputStream();
+        try {
+            return StreamUtilities.checksum(inputStream.getChannel(), assetFileDescriptor.getStartOffset(),
+                    getLength(assetFileDescriptor, inputStream));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Copies a sound resource into a pending media store entry
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @param uri The Uri of the entry
+     * @param resolver The content resolver
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @return The CRC32 checksum of the sound
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the sound could not be written
+     */
+    private static long writeToMediaStore(Resources resources, int soundClipId, Uri uri, ContentResolver resolver,
+                                          StreamUtilities.ProgressListener listener) throws IOException {
+        ParcelFileDescriptor fileDescriptor = resolver.openFileDescriptor(uri, "w");
+        if (fileDescriptor == null) {
+            throw new IOException("The media store entry could not be opened");
+        }
+        FileOutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(fileDescriptor);
+        try {
+            return copyResource(resources, soundClipId, outputStream, listener);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Gets the rows of our directory in the media store
+     * @param displayName The file name of the sound to get the rows of, or null for every sound
+     * @param contentUri The media store table the sounds are saved to
+     * @param resolver The content resolver that is used to perform the query
+     * @return The rows, by their file name
+     */
+    private static Map<String, ArrayList<MediaStoreRow>> getStreamedSounds(String displayName, Uri contentUri,
+                                                                           ContentResolver resolver) {
+        Map<String, ArrayList<MediaStoreRow>> rows = new HashMap<String, ArrayList<MediaStoreRow>>();
+        String[] projection = {BaseColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME,
+                MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED};
+        String selection = RELATIVE_PATH + " = ?";
+        String[] selectionArgs = { MEDIA_STORE_DIRECTORY };
+        if (displayName != null) {
+            selection += " AND " + MediaStore.MediaColumns.DISPLAY_NAME + " = ?";
+            selectionArgs = new String[] { MEDIA_STORE_DIRECTORY, displayName };
+        }
+        Cursor cursor = resolver.query(contentUri, projection, selection, selectionArgs, null);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String name = cursor.getString(1);
+                ArrayList<MediaStoreRow> nameRows = rows.get(name);
+                if (nameRows == null) {
+                    nameRows = new ArrayList<MediaStoreRow>(1);
+                    rows.put(name, nameRows);
+                }
+                nameRows.add(new MediaStoreRow(id, ContentUris.withAppendedId(contentUri, id),
+                        cursor.getLong(2), cursor.getLong(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Looks for a row of the media store that already holds a sound, e.g. from an earlier export
+     * or an earlier installation of the app. The row the manifest records is trusted as long as
+     * it hasn't changed. Other rows are matched on their size first, and only a row of the same
+     * size is read to compare checksums with the resource
+     * @param resources The resources of our application
+     * @param soundClipId The ID of the sound clip resource
+     * @param manifest The export manifest
+     * @param entry The manifest entry of the sound, may be null
+     * @param rows The rows with the file name of the sound, may be null
+     * @param resolver The content resolver
+     * @return The row holding the sound, with its checksum set, or null if the sound has to be saved
+     * @throws IOException If a saved sound or the resource could not be read
+     */
+    private static MediaStoreRow findSavedRow(Resources resources, int soundClipId, ExportManifest manifest,
+                                              ExportManifest.Entry entry, ArrayList<MediaStoreRow> rows,
+                                              ContentResolver resolver) throws IOException {
+        if (rows == null) {
+            return null;
+        }
+        // The checksum of the resource, or -1 until there is a row to compare it with
+        long checksum = -1;
+        // The row the manifest records, whose content is known from the entry
+        MediaStoreRow recordedRow = null;
+        if (entry != null && entry.getUri() != null) {
+            long recordedId = ContentUris.parseId(entry.getUri());
+            for (MediaStoreRow row : rows) {
+                if (row.id == recordedId && manifest.isUnchanged(entry, row.size, row.lastModified, soundClipId)) {
+                    recordedRow = row;
+                }
+            }
+        }
+        if (recordedRow != null) {
+            recordedRow.checksum = entry.getChecksum();
+            if (manifest.isUpToDate(entry, recordedRow.size, recordedRow.lastModified, soundClipId)) {
+                // Nothing has changed since this sound was saved, so there is nothing to read
+                recordedRow.recorded = true;
+                return recordedRow;
+            }
+            // Saved by an older version of the app, the sound is still current if the resource is the same
+            checksum = getResourceChecksum(resources, soundClipId);
+            if (checksum == recordedRow.checksum) {
+                return recordedRow;
+            }
+        }
+        // The length of a compressed resource isn't known, so every row has to be compared
+        long length = getResourceLength(resources, soundClipId);
+        for (MediaStoreRow row : rows) {
+            if (row == recordedRow || (length != -1 && row.size != length)) {
+                continue;
+            }
+            if (checksum == -1) {
+                checksum = getResourceChecksum(resources, soundClipId);
+            }
+            row.checksum = getMediaStoreChecksum(row.uri, resolver);
+            if (row.checksum == checksum) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a number of entries from the media store, e.g. pending entries that could not be
+     * written. A failure is ignored, the entries are only left behind
+     * @param uris The Uris of the sounds
+     * @param indexes The indexes of the Uris of the entries to remove
+     * @param count The number of entries
+     * @param resolver The content resolver
+     */
+    private static void deleteFromMediaStore(Uri[] uris, int[] indexes, int count, ContentResolver resolver) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(count);
+        for (int i = 0; i < count; i++) {
+            operations.add(ContentProviderOperation.newDelete(uris[indexes[i]]).build());
+        }
+        try {
+            resolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (RemoteException ex) {
+            Log.w(TAG, "The unfinished sounds could not be removed from the media store", ex);
+        } catch (OperationApplicationException ex) {
+            Log.w(TAG, "The unfinished sounds could not be removed from the media store", ex);
+        }
+    }
+
+    /**
+     * Calculates the checksum of a sound in the media store
+     * @param uri The Uri of the sound
+     * @param resolver The content resolver
+     * @return The CRC32 checksum, or -1 if the sound could not be opened
+     * @throws IOException If the sound could not be read
+     */
+    private static long getMediaStoreChecksum(Uri uri, ContentResolver resolver) throws IOException {
+        AssetFileDescriptor assetFileDescriptor;
+        try {
+            assetFileDescriptor = resolver.openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException ex) {
+            return -1;
+        }
+        if (assetFileDescriptor == null) {
+            return -1;
+        }
+        return getChecksum(assetFileDescriptor);
+    }
+
+    /**
+     * Gets the size and modification time of a sound in the media store
+     * @param uri The Uri of the sound
+     * @param resolver The content resolver
+     * @return The size in bytes and the modification time in seconds, or null if the sound
+     *         is no longer in the media store
+     */
+    private static long[] getMediaStoreFileInfo(Uri uri, ContentResolver resolver) {
+        String[] projection = {MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED};
+        Cursor cursor = resolver.query(uri, projection, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? new long[] { cursor.getLong(0), cursor.getLong(1) } : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records a sound that has been saved to the media store in the export manifest
+     * @param manifest The export manifest
+     * @param manifestPath The path the sound is recorded by
+     * @param soundClipId The ID of the sound clip resource
+     * @param checksum The CRC32 checksum of the sound
+     * @param uri The Uri of the sound in the media store
+     * @param resolver The content resolver
+     */
+    private static void recordStreamedSound(ExportManifest manifest, String manifestPath, int soundClipId,
+                                            long checksum, Uri uri, ContentResolver resolver) {
+        long[] info = getMediaStoreFileInfo(uri, resolver);
+        if (info != null) {
+            manifest.put(manifestPath, soundClipId, info[0], info[1], checksum, uri);
+        }
+    }
+
+    /**
+     * Saves the sound file to the device storage
+     * @param title The title of the sound clip
      * @param file The file that needs to be saved
      * @param uri Uri to the sound file in our application
      * @param resolver The ContentResolver
+     * @param listener The listener that is notified of the progress of the copy, may be null
      * @return An Uri to the newly saved file
+     * @throws IOException If the file could not be saved
      */
-    private static Uri saveFileAndAddToMediaStore(SquareImageButton button, Context context, File file, Uri uri, ContentResolver resolver) {
+    private static Uri saveFileAndAddToMediaStore(String title, File file, Uri uri, ContentResolver resolver,
+                                                  StreamUtilities.ProgressListener listener) throws IOException {
         // This will hold the uri of the newly saved file
         Uri newUri;
         // A file descriptor of an entry in the AssetManager
@@ -106,42 +966,47 @@ public class RingtoneUtilities {
             assetFileDescriptor = null;
         }
 
-        saveFileToDevice(context, file, assetFileDescriptor);
+        saveFileToDevice(file, assetFileDescriptor, listener);
 
-        newUri = insertSoundFileToMediaStore(button, file, resolver);
+        newUri = insertSoundFileToMediaStore(title, file, resolver);
         return newUri;
     }
 
     /**
-     * Reads a file that is embedded in our application and writes it to the device storage
-     * @param context
+     * Reads a file that is embedded in our application and writes it to the device storage.
+     * A partially written file is deleted, so it isn't mistaken for a saved one later
      * @param file
      * @param assetFileDescriptor
+     * @param listener The listener that is notified of the progress of the copy, may be null
+     * @throws IOException If the file could not be saved
      */
-    private static void saveFileToDevice(Context context, File file, AssetFileDescriptor assetFileDescriptor) {
+    private static void saveFileToDevice(File file, AssetFileDescriptor assetFileDescriptor,
+                                         StreamUtilities.ProgressListener listener) throws IOException {
         // The output stream is used to write the new file to the device storage
         FileOutputStream outputStream = null;
         // The input stream is used for reading the file that is embedded in our application
         FileInputStream inputStream = null;
+        // Set when the whole file has been written
+        boolean saved = false;
         try {
-            byte[] buffer = new byte[1024];
             // Create the input stream
             inputStream = (assetFileDescriptor != null) ? assetFileDescriptor.createInputStream() : null;
+            if (inputStream == null) {
+                throw new IOException("The sound file could not be found");
+            }
             // Create the output stream
             outputStream = new FileOutputStream(file, false);
-            // Read the file into buffer
-            int i = (inputStream != null) ? inputStream.read(buffer) : 0;
-            // Continue writing and reading the file until we reach the end
-            while (i != -1) {
-                outputStream.write(buffer, 0, i);
-                i = (inputStream != null) ? inputStream.read(buffer) : 0;
-            }
-
-            outputStream.flush();
-        } catch (IOException io) {
-            // Display a message to the user
-            Toast toast = Toast.makeText(context, "Could not save the file", Toast.LENGTH_SHORT);
-            toast.show();
+            // The resource is a region of the APK, copy just that region straight between the files
+            long start = assetFileDescriptor.getStartOffset();
+            long length = assetFileDescriptor.getLength();
+            if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                length = inputStream.getChannel().size() - start;
+            }
+            long copied = StreamUtilities.transfer(inputStream.getChannel(), start, length, outputStream.getChannel(), listener);
+            if (copied != length) {
+                throw new IOException("Only " + copied + " of " + length + " bytes of the sound file were saved");
+            }
+            saved = true;
         } finally {
             if (outputStream != null) {
                 try {
@@ -159,34 +1024,110 @@ public class RingtoneUtilities {
                     // warning/log entry here...
                 }
             }
+            if (!saved) {
+                file.delete();
+            }
         }
     }
 
+    /**
+     * Checks whether a file that has been exported before has the same content as the sound
+     * resource in our application
+     * @param file The exported file
+     * @param uri Uri to the sound file in our application
+     * @param resolver The ContentResolver
+     * @return The CRC32 checksum of the file if it has the same content, otherwise -1
+     * @throws IOException If the files could not be read
+     */
+    private static long getChecksumIfSameContent(File file, Uri uri, ContentResolver resolver) throws IOException {
+        AssetFileDescriptor assetFileDescriptor = resolver.openAssetFileDescriptor(uri, "r");
+        if (assetFileDescriptor == null) {
+            throw new IOException("The sound file could not be found");
+        }
+        FileInputStream inputStream = assetFileDescriptor.createInputStream();
+        try {
+            long length = assetFileDescriptor.getLength();
+            if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                length = inputStream.getChannel().size() - assetFileDescriptor.getStartOffset();
+            }
+            if (length != file.length()) {
+                return -1;
+            }
+            long checksum = getChecksum(file);
+            long resourceChecksum = StreamUtilities.checksum(inputStream.getChannel(), assetFileDescriptor.getStartOffset(), length);
+            return checksum == resourceChecksum ? checksum : -1;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Calculates the checksum of a file
+     * @param file The file
+     * @return The CRC32 checksum
+     * @throws IOException If the file could not be read
+     */
+    private static long getChecksum(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return StreamUtilities.checksum(inputStream.getChannel(), 0, file.length());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Removes the media store entry of a file that is about to be rewritten
+     * @param file The file
+     * @param contentResolver The content resolver
+     */
+    private static void deleteFromMediaStore(File file, ContentResolver contentResolver) {
+        Uri uri = MediaStore.Audio.Media.getContentUriForPath(file.getAbsolutePath());
+        contentResolver.delete(uri, MediaStore.MediaColumns.DATA + " = ?", new String[] { file.getAbsolutePath() });
+    }
+
     /**
      * Inserts the sound file into the Android Media Store. This is needed so we can use it as
      * a ringtone, alert or notification
-     * @param button
+     * @param title
      * @param file
      * @param contentResolver
      * @return
      */
-    private static Uri insertSoundFileToMediaStore(SquareImageButton button, File file, ContentResolver contentResolver) {
-        Uri newUri;
-        ContentValues values = new ContentValues();
+    private static Uri insertSoundFileToMediaStore(String title, File file, ContentResolver contentResolver) {
+        Uri uri = MediaStore.Audio.Media.getContentUriForPath(file.getAbsolutePath());
+        return contentResolver.insert(uri, getMediaStoreValues(title, file));
+    }
 
+    /**
+     * Gets the values of the media store entry of a sound file
+     * @param title The title of the sound clip
+     * @param file The sound file
+     * @return The values
+     */
+    private static ContentValues getMediaStoreValues(String title, File file) {
+        ContentValues values = getMediaStoreValues(title);
         values.put(MediaStore.MediaColumns.DATA, file.getAbsolutePath());
-        values.put(MediaStore.MediaColumns.TITLE, button.getTitle());
-        values.put(MediaStore.MediaColumns.MIME_TYPE, "audio/mp3");
         values.put(MediaStore.MediaColumns.SIZE, file.length());
+        return values;
+    }
+
+    /**
+     * Gets the values of the media store entry of a sound that don't depend on where it's stored
+     * @param title The title of the sound clip
+     * @return The values
+     */
+    private static ContentValues getMediaStoreValues(String title) {
+        ContentValues values = new ContentValues();
+
+        values.put(MediaStore.MediaColumns.TITLE, title);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, "audio/mp3");
         values.put(MediaStore.Audio.AudioColumns.ARTIST, R.string.app_name);
         values.put(MediaStore.Audio.AudioColumns.IS_RINGTONE, true);
         values.put(MediaStore.Audio.AudioColumns.IS_NOTIFICATION, true);
         values.put(MediaStore.Audio.AudioColumns.IS_ALARM, true);
         values.put(MediaStore.Audio.AudioColumns.IS_MUSIC, false);
-
-        Uri uri = MediaStore.Audio.Media.getContentUriForPath(file.getAbsolutePath());
-        newUri = contentResolver.insert(uri, values);
-        return newUri;
+        return values;
     }
 
     /**
@@ -212,24 +1153,76 @@ public class RingtoneUtilities {
      * Gets the Uri to a specific audio file
      * @param filePath The path of the file that we are looking up
      * @param contentResolver The content resolver that is used to perform the query
-     * @return The Uri of the sound file
+     * @return The Uri of the sound file, or null if it isn't in the media store
      */
     private static Uri getAudioUriFromFilePath(String filePath, ContentResolver contentResolver) {
-        long audioId;
-        Uri uri = MediaStore.Audio.Media.getContentUri("external");
+        Uri uri = MediaStore.Audio.Media.getContentUriForPath(filePath);
         String[] projection = {BaseColumns._ID};
-        Cursor cursor = contentResolver.query(uri, projection, MediaStore.MediaColumns.DATA + " LIKE ?", new String[] { filePath }, null);
+        // An exact match can use the index on the path, unlike LIKE
+        Cursor cursor = contentResolver.query(uri, projection, MediaStore.MediaColumns.DATA + " = ?", new String[] { filePath }, null);
 
         if (cursor != null) {
-            cursor.moveToFirst();
-            int columnIndex = cursor.getColumnIndex(projection[0]);
-            audioId = cursor.getLong(columnIndex);
-            cursor.close();
-            return Uri.parse(uri.toString() + "/"+ audioId);
+            try {
+                if (cursor.moveToFirst()) {
+                    return ContentUris.withAppendedId(uri, cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
         }
         return null;
     }
 
+    /**
+     * Gets the Uris of all the audio files in a directory with a single query. The paths are
+     * matched as a range, which can use the index on the path, unlike LIKE
+     * @param directoryPath The path of the directory, ending with a separator
+     * @param contentResolver The content resolver that is used to perform the query
+     * @return The Uri of each file in the media store, keyed by its path
+     */
+    private static Map<String, Uri> getAudioUrisInDirectory(String directoryPath, ContentResolver contentResolver) {
+        Map<String, Uri> uris = new HashMap<String, Uri>();
+        Uri uri = MediaStore.Audio.Media.getContentUriForPath(directoryPath);
+        String[] projection = {BaseColumns._ID, MediaStore.MediaColumns.DATA};
+        // Every path in the directory sorts between the directory and the same path with the
+        // separator replaced by the character after it
+        String end = directoryPath.substring(0, directoryPath.length() - 1) + (char)(File.separatorChar + 1);
+        Cursor cursor = contentResolver.query(uri, projection,
+                MediaStore.MediaColumns.DATA + " >= ? AND " + MediaStore.MediaColumns.DATA + " < ?",
+                new String[] { directoryPath, end }, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    uris.put(cursor.getString(1), ContentUris.withAppendedId(uri, cursor.getLong(0)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Checks whether a media store Uri still refers to a file. The Uri is looked up by its
+     * primary key, which is much cheaper than searching for the path
+     * @param uri The media store Uri
+     * @param file The file
+     * @param contentResolver The content resolver that is used to perform the query
+     * @return True if the Uri exists and refers to the file
+     */
+    private static boolean isMediaStoreEntryOf(Uri uri, File file, ContentResolver contentResolver) {
+        String[] projection = {MediaStore.MediaColumns.DATA};
+        Cursor cursor = contentResolver.query(uri, projection, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst() && file.getAbsolutePath().equals(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Gets a specific system string based on a ringtone type
      * @param type The ringtone type
@@ -248,4 +1241,48 @@ public class RingtoneUtilities {
                 return null;
         }
     }
+
+    /**
+     * A sound in our directory of the media store
+     */
+    private static class MediaStoreRow {
+        /**
+         * The ID of the row
+         */
+        final long id;
+        /**
+         * The Uri of the sound
+         */
+        final Uri uri;
+        /**
+         * The size of the sound in bytes
+         */
+        final long size;
+        /**
+         * The modification time of the sound in seconds
+         */
+        final long lastModified;
+        /**
+         * The CRC32 checksum of the sound, or -1 if it hasn't been read
+         */
+        long checksum = -1;
+        /**
+         * Set when the export manifest already records the sound as it is
+         */
+        boolean recorded;
+
+        /**
+         * Public constructor
+         * @param id The ID of the row
+         * @param uri The Uri of the sound
+         * @param size The size of the sound in bytes
+         * @param lastModified The modification time of the sound in seconds
+         */
+        public MediaStoreRow(long id, Uri uri, long size, long lastModified) {
+            this.id = id;
+            this.uri = uri;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
 }
@@ -0,0 +1,277 @@
+package com.hjortur.soundboard.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Helper methods for working with streams. This class doesn't depend on Android so it can be
+ * benchmarked on a regular JVM
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class StreamUtilities {
+    /**
+     * Interface definition for a callback to be invoked while a stream is being copied
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every block that has been copied
+         * @param bytesCopied The number of bytes that have been copied so far
+         */
+        void onProgress(long bytesCopied);
+    }
+
+    /**
+     * The size of the buffer used when copying streams
+     */
+    public static final int COPY_BUFFER_SIZE = 1024;
+    /**
+     * The largest number of bytes moved by a single transferTo() call, so the progress can be
+     * reported and the copy cancelled while large files are transferred
+     */
+    public static final int TRANSFER_CHUNK_SIZE = 256 * 1024;
+    /**
+     * The size of the buffer used when a channel can't transfer to another one directly
+     */
+    public static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Private constructor, this class only contains static methods
+     */
+    private StreamUtilities() {
+    }
+
+    /**
+     * Copies everything from an input stream to an output stream. The copy stops if the thread
+     * is interrupted
+     * @param inputStream The stream to read from
+     * @param outputStream The stream to write to
+     * @return The number of bytes that were copied
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If reading or writing failed
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        return copy(inputStream, outputStream, null);
+    }
+
+    /**
+     * Copies everything from an input stream to an output stream, reporting the progress. The copy
+     * stops if the thread is interrupted
+     * @param inputStream The stream to read from
+     * @param outputStream The stream to write to
+     * @param listener The listener that is notified of the progress, may be null
+     * @return The number of bytes that were copied
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If reading or writing failed
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream, ProgressListener listener) throws IOException {
+        return copy(inputStream, outputStream, COPY_BUFFER_SIZE, listener);
+    }
+
+    /**
+     * Copies everything from an input stream to an output stream through a buffer of a given size,
+     * reporting the progress. The copy stops if the thread is interrupted
+     * @param inputStream The stream to read from
+     * @param outputStream The stream to write to
+     * @param bufferSize The size of the buffer, e.g. TRANSFER_BUFFER_SIZE for large files
+     * @param listener The listener that is notified of the progress, may be null
+     * @return The number of bytes that were copied
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If reading or writing failed
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream, int bufferSize,
+                            ProgressListener listener) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long total = 0;
+        // Continue writing and reading the file until we reach the end
+        int i = inputStream.read(buffer);
+        while (i != -1) {
+            outputStream.write(buffer, 0, i);
+            total += i;
+            checkInterrupted(total);
+            if (listener != null) {
+                listener.onProgress(total);
+            }
+            i = inputStream.read(buffer);
+        }
+        outputStream.flush();
+        return total;
+    }
+
+    /**
+     * Copies a region of a file channel to another channel. The bytes are moved with
+     * FileChannel.transferTo(), which lets the kernel copy them without going through the Java
+     * heap, and through a large direct buffer if the channel can't transfer them. The copy stops
+     * if the thread is interrupted
+     * @param source The channel to read from, its position isn't used or changed
+     * @param position The position of the first byte to copy
+     * @param length The number of bytes to copy
+     * @param target The channel to write to, from its current position
+     * @param listener The listener that is notified of the progress, may be null
+     * @return The number of bytes that were copied
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If reading or writing failed, or the source ended before length bytes
+     */
+    public static long transfer(FileChannel source, long position, long length, FileChannel target,
+                                ProgressListener listener) throws IOException {
+        return transfer(source, position, length, target, null, listener);
+    }
+
+    /**
+     * Copies a region of a file channel to another channel, and adds the bytes to a checksum as
+     * they are copied, so the data doesn't have to be read a second time for it. With a checksum
+     * the bytes go through a buffer on the heap instead of a kernel copy. The copy stops if the
+     * thread is interrupted
+     * @param source The channel to read from, its position isn't used or changed
+     * @param position The position of the first byte to copy
+     * @param length The number of bytes to copy
+     * @param target The channel to write to, from its current position
+     * @param checksum The checksum the copied bytes are added to, null to copy with transferTo()
+     * @param listener The listener that is notified of the progress, may be null
+     * @return The number of bytes that were copied
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If reading or writing failed, or the source ended before length bytes
+     */
+    public static long transfer(FileChannel source, long position, long length, FileChannel target,
+                                Checksum checksum, ProgressListener listener) throws IOException {
+        if (checksum != null) {
+            return transferBuffered(source, position, length, target, 0, checksum, listener);
+        }
+        long targetStart = target.position();
+        long transferred = 0;
+        try {
+            while (transferred < length) {
+                checkInterrupted(transferred);
+                long count = source.transferTo(position + transferred, Math.min(TRANSFER_CHUNK_SIZE, length - transferred), target);
+                if (count <= 0) {
+                    break;
+                }
+                transferred += count;
+                if (listener != null) {
+                    listener.onProgress(transferred);
+                }
+            }
+        } catch (ClosedByInterruptException ex) {
+            throw new InterruptedIOException("The copy was cancelled after " + transferred + " bytes");
+        } catch (InterruptedIOException ex) {
+            // Thrown by checkInterrupted(), a cancelled copy must not carry on through the buffer
+            throw ex;
+        } catch (IOException ex) {
+            // Some channels don't support transferTo(), the rest is copied through the buffer.
+            // The target may have been written to before the failure, so continue from what was counted
+            target.position(targetStart + transferred);
+        }
+        if (transferred < length) {
+            transferred = transferBuffered(source, position, length, target, transferred, null, listener);
+        }
+        return transferred;
+    }
+
+    /**
+     * Copies the rest of a region of a file channel to another channel through a direct buffer
+     * @param source The channel to read from
+     * @param position The position of the first byte of the region
+     * @param length The length of the region
+     * @param target The channel to write to
+     * @param transferred The number of bytes of the region that have already been copied
+     * @param checksum The checksum the copied bytes are added to, may be null
+     * @param listener The listener that is notified of the progress, may be null
+     * @return The number of bytes that were copied in total
+     * @throws IOException If reading or writing failed, or the source ended too early
+     */
+    private static long transferBuffered(FileChannel source, long position, long length, FileChannel target,
+                                         long transferred, Checksum checksum, ProgressListener listener) throws IOException {
+        int size = (int)Math.max(Math.min(TRANSFER_BUFFER_SIZE, length - transferred), 1);
+        // The checksum needs the bytes in an array
+        ByteBuffer buffer = (checksum != null) ? ByteBuffer.allocate(size) : ByteBuffer.allocateDirect(size);
+        try {
+            while (transferred < length) {
+                checkInterrupted(transferred);
+                buffer.clear();
+                if (buffer.capacity() > length - transferred) {
+                    buffer.limit((int)(length - transferred));
+                }
+                int read = source.read(buffer, position + transferred);
+                if (read < 0) {
+                    throw new IOException("The file ended after " + transferred + " of " + length + " bytes");
+                }
+                if (checksum != null) {
+                    checksum.update(buffer.array(), buffer.arrayOffset(), read);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                transferred += read;
+                if (listener != null) {
+                    listener.onProgress(transferred);
+                }
+            }
+        } catch (ClosedByInterruptException ex) {
+            throw new InterruptedIOException("The copy was cancelled after " + transferred + " bytes");
+        }
+        return transferred;
+    }
+
+    /**
+     * Calculates the CRC32 checksum of a region of a file channel
+     * @param channel The channel, its position isn't used or changed
+     * @param position The position of the first byte
+     * @param length The number of bytes
+     * @return The checksum
+     * @throws IOException If reading failed, or the channel ended before length bytes
+     */
+    public static long checksum(FileChannel channel, long position, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] array = new byte[(int)Math.min(TRANSFER_BUFFER_SIZE, Math.max(length, 1))];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        long done = 0;
+        while (done < length) {
+            buffer.clear();
+            if (buffer.capacity() > length - done) {
+                buffer.limit((int)(length - done));
+            }
+            int read = channel.read(buffer, position + done);
+            if (read < 0) {
+                throw new IOException("The file ended after " + done + " of " + length + " bytes");
+            }
+            crc.update(array, 0, read);
+            done += read;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Calculates the CRC32 checksum of everything that is left in a stream
+     * @param inputStream The stream, which is read to the end
+     * @return The checksum
+     * @throws IOException If reading failed
+     */
+    public static long checksum(InputStream inputStream) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] array = new byte[TRANSFER_BUFFER_SIZE];
+        int read = inputStream.read(array);
+        while (read != -1) {
+            crc.update(array, 0, read);
+            read = inputStream.read(array);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Stops a copy if the thread has been interrupted
+     * @param transferred The number of bytes copied so far
+     * @throws InterruptedIOException If the thread was interrupted
+     */
+    private static void checkInterrupted(long transferred) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The copy was cancelled after " + transferred + " bytes");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hjortur.soundboard.benchmarks;
+
+import com.hjortur.soundboard.stats.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of recording a latency, which happens on the UI thread and the audio thread
+ * @author Hjörtur Líndal Stefánsson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyHistogramBenchmark {
+    private LatencyHistogram histogram;
+    private long value;
+
+    @Setup
+    public void setUp() {
+        histogram = new LatencyHistogram();
+    }
+
+    @Benchmark
+    public void record() {
+        // Spread the values over a few milliseconds so different buckets are hit
+        value = (value + 7919) & 0x3fffff;
+        histogram.record(value);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.getValueAtPercentile(99);
+    }
+}
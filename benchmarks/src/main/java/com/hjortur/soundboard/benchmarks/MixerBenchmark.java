@@ -0,0 +1,111 @@
+package com.hjortur.soundboard.benchmarks;
+
+import com.hjortur.soundboard.audio.mixer.AdpcmSource;
+import com.hjortur.soundboard.audio.mixer.Mixer;
+import com.hjortur.soundboard.audio.mixer.SampleSource;
+import com.hjortur.soundboard.audio.mixer.ShortArraySource;
+import com.hjortur.soundboard.audio.mixer.ShortBufferSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes the mixer to render a block with a number of active voices, from
+ * 16-bit PCM and from IMA ADPCM that is decoded as it's played
+ * @author Hjörtur Líndal Stefánsson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixerBenchmark {
+    /**
+     * The number of frames in a block, a typical AudioTrack minimum buffer
+     */
+    private static final int FRAMES = 256;
+
+    /**
+     * The number of voices that are playing
+     */
+    @Param({"1", "8", "32"})
+    public int voices;
+
+    /**
+     * The number of channels in the samples
+     */
+    @Param({"1", "2"})
+    public int channels;
+
+    private Mixer mixer;
+    private ShortArraySource source;
+    private AdpcmSource adpcmSource;
+    private short[] shortOutput;
+    private float[] floatOutput;
+
+    @Setup
+    public void setUp() {
+        // Ten seconds of noise, long enough that the voices never run out during an iteration
+        short[] data = new short[44100 * 10 * channels];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) random.nextInt();
+        }
+        source = new ShortArraySource(data, channels);
+        adpcmSource = AdpcmSource.encode(new ShortBufferSource(ShortBuffer.wrap(data), channels, data.length / channels));
+        mixer = new Mixer(voices, FRAMES);
+        shortOutput = new short[FRAMES * 2];
+        floatOutput = new float[FRAMES * 2];
+    }
+
+    /**
+     * Restarts the voices that have reached the end of the sample
+     */
+    private void keepVoicesPlaying() {
+        keepVoicesPlaying(source);
+    }
+
+    /**
+     * Restarts the voices that have reached the end of a sample
+     * @param sample The sample the voices play
+     */
+    private void keepVoicesPlaying(SampleSource sample) {
+        while (mixer.getActiveVoiceCount() < voices) {
+            mixer.play(sample, 0.5f, 0f);
+        }
+    }
+
+    @Benchmark
+    public short[] render16Bit() {
+        keepVoicesPlaying();
+        mixer.render(shortOutput, FRAMES);
+        return shortOutput;
+    }
+
+    @Benchmark
+    public float[] renderFloat() {
+        keepVoicesPlaying();
+        mixer.render(floatOutput, FRAMES);
+        return floatOutput;
+    }
+
+    @Benchmark
+    public short[] renderAdpcm16Bit() {
+        keepVoicesPlaying(adpcmSource);
+        mixer.render(shortOutput, FRAMES);
+        return shortOutput;
+    }
+}
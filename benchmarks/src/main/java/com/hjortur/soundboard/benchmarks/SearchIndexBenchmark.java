@@ -0,0 +1,114 @@
+package com.hjortur.soundboard.benchmarks;
+
+import com.hjortur.soundboard.catalog.SearchIndex;
+import com.hjortur.soundboard.catalog.SoundCatalog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the search index and filtering the sounds as a search text is typed,
+ * compared to scanning all the names with String.contains()
+ * @author Hjörtur Líndal Stefánsson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchIndexBenchmark {
+    /**
+     * The words the sound names are made of
+     */
+    private static final String[] WORDS = {
+            "cow", "bull", "moo", "bell", "police", "siren", "fire", "truck", "tornado", "horn",
+            "dog", "bark", "cat", "meow", "laugh", "drum", "boing", "whistle", "applause", "crash"
+    };
+    /**
+     * The search texts typed one character at a time, as the search bar reports them
+     */
+    private static final String[] KEYSTROKES = { "s", "si", "sir", "sire", "siren", "siren 1" };
+
+    /**
+     * The number of sounds on the board
+     */
+    @Param({"100", "10000"})
+    public int size;
+
+    private SoundCatalog catalog;
+    private SearchIndex index;
+    private String[] lowerCaseNames;
+    private int[] linearResults;
+
+    @Setup
+    public void setUp() {
+        catalog = new SoundCatalog();
+        lowerCaseNames = new String[size];
+        for (int i = 0; i < size; i++) {
+            String name = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+            catalog.add(name, 0x7f020000, 0x7f040000 + i, (i % 2 == 0) ? "Animals" : "Alarms", 1500);
+            lowerCaseNames[i] = name.toLowerCase();
+        }
+        index = new SearchIndex(catalog);
+        linearResults = new int[size];
+    }
+
+    @Benchmark
+    public SearchIndex build() {
+        return new SearchIndex(catalog);
+    }
+
+    /**
+     * Types a search text one character at a time and then clears it
+     * @return The number of matches
+     */
+    @Benchmark
+    public int typeQuery() {
+        int matches = 0;
+        for (String query : KEYSTROKES) {
+            matches += index.search(query);
+        }
+        return matches + index.search("");
+    }
+
+    /**
+     * Searches for a new text that doesn't extend the previous one
+     * @return The number of matches
+     */
+    @Benchmark
+    public int freshQuery() {
+        index.search("truck");
+        return index.search("bell");
+    }
+
+    /**
+     * The naive way of filtering, scanning every name on each keystroke
+     * @return The number of matches
+     */
+    @Benchmark
+    public int typeQueryLinearScan() {
+        int matches = 0;
+        for (String query : KEYSTROKES) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (lowerCaseNames[i].contains(query)) {
+                    linearResults[count++] = i;
+                }
+            }
+            matches += count;
+        }
+        return matches;
+    }
+}
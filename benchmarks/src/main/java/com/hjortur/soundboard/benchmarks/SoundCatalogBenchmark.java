@@ -0,0 +1,79 @@
+package com.hjortur.soundboard.benchmarks;
+
+import com.hjortur.soundboard.catalog.SoundCatalog;
+import com.hjortur.soundboard.catalog.SoundItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the sound catalog and looking up items by position
+ * @author Hjörtur Líndal Stefánsson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoundCatalogBenchmark {
+    /**
+     * The number of sounds on the board
+     */
+    @Param({"100", "10000"})
+    public int size;
+
+    private String[] names;
+    private SoundCatalog catalog;
+    private int position;
+
+    @Setup
+    public void setUp() {
+        names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = "Sound number " + i;
+        }
+        catalog = build();
+    }
+
+    /**
+     * Builds a catalog the way the catalog reader does
+     * @return The catalog
+     */
+    private SoundCatalog build() {
+        SoundCatalog result = new SoundCatalog();
+        for (int i = 0; i < size; i++) {
+            result.add(names[i], 0x7f020000 + (i % 8), 0x7f040000 + i, (i % 2 == 0) ? "Cows" : "Sirens", 1500);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SoundCatalog load() {
+        return build();
+    }
+
+    @Benchmark
+    public SoundItem getItem() {
+        position = (position + 1) % size;
+        return catalog.getItem(position);
+    }
+
+    @Benchmark
+    public int getSoundId() {
+        position = (position + 1) % size;
+        return catalog.getSoundId(position);
+    }
+}
@@ -0,0 +1,96 @@
+package com.hjortur.soundboard.benchmarks;
+
+import com.hjortur.soundboard.utilities.StreamUtilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying a sound file from one file to another, the way a ringtone is exported. The
+ * sound is stored at an offset in a larger file, like a raw resource in the APK. The old copy
+ * through a 1 KB byte array is compared to the FileChannel transfer
+ * @author Hjörtur Líndal Stefánsson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamCopyBenchmark {
+    /**
+     * The offset of the sound in the source file
+     */
+    private static final int OFFSET = 4096;
+
+    /**
+     * The size of the file, the largest sound clip is about 1.3 MB
+     */
+    @Param({"65536", "1400000"})
+    public int size;
+
+    private File source;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] data = new byte[OFFSET + size];
+        new Random(42).nextBytes(data);
+        source = File.createTempFile("soundboard", ".mp3");
+        target = File.createTempFile("soundboard", ".copy");
+        FileOutputStream outputStream = new FileOutputStream(source);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        FileInputStream inputStream = new FileInputStream(source);
+        FileOutputStream outputStream = new FileOutputStream(target, false);
+        try {
+            inputStream.skip(OFFSET);
+            return StreamUtilities.copy(inputStream, outputStream);
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+    }
+
+    @Benchmark
+    public long channelTransfer() throws IOException {
+        FileInputStream inputStream = new FileInputStream(source);
+        FileOutputStream outputStream = new FileOutputStream(target, false);
+        try {
+            return StreamUtilities.transfer(inputStream.getChannel(), OFFSET, size, outputStream.getChannel(), null);
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+    }
+}
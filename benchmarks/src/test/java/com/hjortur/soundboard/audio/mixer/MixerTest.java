@@ -0,0 +1,292 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the mixing, panning, clipping and voice handling of the Mixer
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class MixerTest {
+    /**
+     * The number of frames in a block
+     */
+    private static final int FRAMES = 64;
+    /**
+     * The largest difference allowed between floating point samples
+     */
+    private static final float DELTA = 1e-5f;
+
+    /**
+     * The mixer being tested
+     */
+    private Mixer mixer;
+    /**
+     * The sources the mixer has reported as ended, in order
+     */
+    private List<SampleSource> endedSources;
+
+    @Before
+    public void setUp() {
+        mixer = new Mixer(4, FRAMES);
+        endedSources = new ArrayList<SampleSource>();
+        mixer.setOnVoiceEndedListener(new Mixer.OnVoiceEndedListener() {
+            @Override
+            public void onVoiceEnded(SampleSource source) {
+                endedSources.add(source);
+            }
+        });
+    }
+
+    @Test
+    public void sumsVoices() {
+        mixer.play(constant(8192, FRAMES * 2), 1f, 0f);
+        mixer.play(constant(4096, FRAMES * 2), 1f, 0f);
+        mixer.play(constant(-2048, FRAMES * 2), 1f, 0f);
+        float[] output = new float[FRAMES * 2];
+        mixer.render(output, FRAMES);
+        for (float sample : output) {
+            assertEquals(0.3125f, sample, DELTA);
+        }
+    }
+
+    @Test
+    public void appliesGain() {
+        mixer.play(constant(16384, FRAMES * 2), 0.5f, 0f);
+        float[] output = new float[FRAMES * 2];
+        mixer.render(output, FRAMES);
+        for (float sample : output) {
+            assertEquals(0.25f, sample, DELTA);
+        }
+    }
+
+    @Test
+    public void pansWithConstantPower() {
+        float[] pans = {-1f, -0.5f, 0f, 0.5f, 1f};
+        float[] output = new float[FRAMES * 2];
+        for (float pan : pans) {
+            int voice = mixer.play(constant(8192, FRAMES * 2), 1f, pan);
+            mixer.render(output, FRAMES);
+            mixer.stop(voice);
+            float left = output[0] / 0.25f;
+            float right = output[1] / 0.25f;
+            // The total power is the same wherever the sound is, and the same as in the center
+            assertEquals("pan " + pan, 2f, left * left + right * right, 1e-4f);
+        }
+        mixer.play(constant(8192, FRAMES * 2), 1f, -1f);
+        mixer.render(output, FRAMES);
+        assertEquals(0.25f * (float) Math.sqrt(2), output[0], DELTA);
+        assertEquals(0f, output[1], DELTA);
+        mixer.stopAll();
+        mixer.play(constant(8192, FRAMES * 2), 1f, 1f);
+        mixer.render(output, FRAMES);
+        assertEquals(0f, output[0], DELTA);
+        assertEquals(0.25f * (float) Math.sqrt(2), output[1], DELTA);
+    }
+
+    @Test
+    public void changesGainOfPlayingVoice() {
+        int voice = mixer.play(constant(16384, FRAMES * 4), 1f, 0f);
+        float[] output = new float[FRAMES * 2];
+        mixer.render(output, FRAMES);
+        assertEquals(0.5f, output[0], DELTA);
+        mixer.setGain(voice, 0.5f, 0f);
+        mixer.render(output, FRAMES);
+        assertEquals(0.25f, output[0], DELTA);
+        assertEquals(0.25f, output[1], DELTA);
+    }
+
+    @Test
+    public void clipsToShortRange() {
+        mixer.play(constant(30000, FRAMES * 2), 1f, 0f);
+        mixer.play(constant(30000, FRAMES * 2), 1f, 0f);
+        short[] output = new short[FRAMES * 2];
+        mixer.render(output, FRAMES);
+        for (short sample : output) {
+            assertEquals(32767, sample);
+        }
+
+        mixer.stopAll();
+        mixer.play(constant(-30000, FRAMES * 2), 1f, 0f);
+        mixer.play(constant(-30000, FRAMES * 2), 1f, 0f);
+        mixer.render(output, FRAMES);
+        for (short sample : output) {
+            assertEquals(-32767, sample);
+        }
+    }
+
+    @Test
+    public void softClippingStaysInRange() {
+        mixer.setClipMode(Mixer.CLIP_SOFT);
+        short[] output = new short[FRAMES * 2];
+        for (int voices = 1; voices <= 4; voices++) {
+            mixer.stopAll();
+            for (int i = 0; i < voices; i++) {
+                mixer.play(constant(20000, FRAMES * 2), 1f, 0f);
+            }
+            mixer.render(output, FRAMES);
+            for (short sample : output) {
+                assertTrue(sample > 0 && sample <= 32767);
+            }
+        }
+        // Four voices sum to well over 1.5, where the curve is flat
+        assertEquals(32767, output[0]);
+    }
+
+    @Test
+    public void shortAndFloatOutputMatch() {
+        Random random = new Random(42);
+        Mixer floatMixer = new Mixer(4, FRAMES);
+        for (int i = 0; i < 4; i++) {
+            short[] data = new short[FRAMES * 8];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (short) (random.nextInt(65536) - 32768);
+            }
+            float gain = 0.25f + random.nextFloat();
+            float pan = random.nextFloat() * 2 - 1;
+            mixer.play(new ShortArraySource(data, 2), gain, pan);
+            floatMixer.play(new ShortArraySource(data, 2), gain, pan);
+        }
+        short[] shortOutput = new short[FRAMES * 2];
+        float[] floatOutput = new float[FRAMES * 2];
+        for (int block = 0; block < 4; block++) {
+            mixer.render(shortOutput, FRAMES);
+            floatMixer.render(floatOutput, FRAMES);
+            for (int i = 0; i < FRAMES * 2; i++) {
+                assertEquals((short) (floatOutput[i] * 32767f), shortOutput[i]);
+            }
+        }
+    }
+
+    @Test
+    public void removesFinishedVoices() {
+        SampleSource shortSource = constant(8192, FRAMES + FRAMES / 2);
+        SampleSource exactSource = constant(8192, FRAMES * 2);
+        mixer.play(shortSource, 1f, 0f);
+        mixer.play(exactSource, 1f, 0f);
+        float[] output = new float[FRAMES * 2];
+
+        mixer.render(output, FRAMES);
+        assertEquals(2, mixer.getActiveVoiceCount());
+        assertTrue(endedSources.isEmpty());
+
+        mixer.render(output, FRAMES);
+        // The short source ran out halfway through the block, the other one ended with it
+        assertEquals(0, mixer.getActiveVoiceCount());
+        assertEquals(2, endedSources.size());
+        assertSame(shortSource, endedSources.get(0));
+        assertSame(exactSource, endedSources.get(1));
+        assertEquals(0.5f, output[0], DELTA);
+        assertEquals(0.25f, output[FRAMES], DELTA);
+
+        mixer.render(output, FRAMES);
+        for (float sample : output) {
+            assertEquals(0f, sample, 0f);
+        }
+        assertEquals(2, endedSources.size());
+    }
+
+    @Test
+    public void stopsVoices() {
+        SampleSource first = constant(8192, FRAMES * 4);
+        SampleSource second = constant(8192, FRAMES * 4);
+        int voice = mixer.play(first, 1f, 0f);
+        mixer.play(second, 1f, 0f);
+        mixer.play(second, 1f, 0f);
+        mixer.stop(voice);
+        assertEquals(2, mixer.getActiveVoiceCount());
+        mixer.stop(second);
+        assertEquals(0, mixer.getActiveVoiceCount());
+        assertEquals(3, endedSources.size());
+        assertSame(first, endedSources.get(0));
+    }
+
+    @Test
+    public void reusesOldestVoiceWhenAllAreBusy() {
+        SampleSource[] sources = new SampleSource[5];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = constant(8192, FRAMES * 4);
+            mixer.play(sources[i], 1f, 0f);
+        }
+        assertEquals(4, mixer.getActiveVoiceCount());
+        assertEquals(1, endedSources.size());
+        assertSame(sources[0], endedSources.get(0));
+    }
+
+    @Test
+    public void renderDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        mixer.setOnVoiceEndedListener(null);
+        short[] data = new short[FRAMES * 16];
+        SampleSource[] sources = {
+                new ShortArraySource(data, 1),
+                new ShortArraySource(data, 2),
+                new FloatArraySource(new float[FRAMES * 16], 2),
+                AdpcmSource.encode(new ShortBufferSource(ShortBuffer.wrap(data), 2, FRAMES * 8))
+        };
+        short[] shortOutput = new short[FRAMES * 2];
+        float[] floatOutput = new float[FRAMES * 2];
+        // Let the JIT compile the render path first, the measurement covers the compiled code
+        renderBlocks(sources, shortOutput, floatOutput, 20000);
+
+        long threadId = Thread.currentThread().getId();
+        long overhead = threadBean.getThreadAllocatedBytes(threadId);
+        overhead = threadBean.getThreadAllocatedBytes(threadId) - overhead;
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        renderBlocks(sources, shortOutput, floatOutput, 1000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before - overhead;
+        assertEquals("Bytes allocated while rendering", 0, allocated);
+    }
+
+    /**
+     * Renders a number of blocks, restarting the sources as they end
+     * @param sources The sources to play
+     * @param shortOutput The buffer for 16-bit output
+     * @param floatOutput The buffer for floating point output
+     * @param blocks The number of blocks to render
+     */
+    private void renderBlocks(SampleSource[] sources, short[] shortOutput, float[] floatOutput, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            if (mixer.getActiveVoiceCount() < sources.length) {
+                mixer.stopAll();
+                for (SampleSource source : sources) {
+                    mixer.play(source, 0.5f, 0f);
+                }
+            }
+            if ((i & 1) == 0) {
+                mixer.render(shortOutput, FRAMES);
+            } else {
+                mixer.render(floatOutput, FRAMES);
+            }
+        }
+    }
+
+    /**
+     * Creates a mono source that holds the same sample throughout
+     * @param value The 16-bit sample
+     * @param frames The number of frames
+     * @return The source
+     */
+    private static SampleSource constant(int value, int frames) {
+        short[] data = new short[frames];
+        Arrays.fill(data, (short) value);
+        return new ShortArraySource(data, 1);
+    }
+}
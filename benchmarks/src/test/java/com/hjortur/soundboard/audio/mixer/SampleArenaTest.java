@@ -0,0 +1,58 @@
+package com.hjortur.soundboard.audio.mixer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the allocation, freeing and clearing of the SampleArena
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class SampleArenaTest {
+    /**
+     * The size of a slab
+     */
+    private static final int SLAB_SIZE = 4096;
+
+    @Test
+    public void freeingGivesSpaceBack() {
+        SampleArena arena = new SampleArena(SLAB_SIZE);
+        SampleArena.Allocation first = arena.allocate(1000);
+        SampleArena.Allocation second = arena.allocate(1000);
+        assertEquals(2000, arena.getAllocatedBytes());
+        assertEquals(2, arena.getLiveAllocationCount());
+        arena.free(first);
+        arena.free(second);
+        // Freeing twice does nothing
+        arena.free(second);
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(0, arena.getLiveAllocationCount());
+        assertEquals(SLAB_SIZE, arena.getLargestFreeBlock());
+    }
+
+    @Test
+    public void clearResetsCounters() {
+        SampleArena arena = new SampleArena(SLAB_SIZE);
+        arena.allocate(1000);
+        arena.free(arena.allocate(500));
+        arena.clear();
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(0, arena.getLiveAllocationCount());
+        assertEquals(0, arena.getSlabCount());
+    }
+
+    @Test
+    public void freeingAfterClearDoesNothing() {
+        SampleArena arena = new SampleArena(SLAB_SIZE);
+        SampleArena.Allocation stale = arena.allocate(1000);
+        arena.clear();
+        SampleArena.Allocation fresh = arena.allocate(1000);
+        // A piece that was still held when the arena was cleared must not count against the new slab
+        arena.free(stale);
+        assertEquals(1000, arena.getAllocatedBytes());
+        assertEquals(1, arena.getLiveAllocationCount());
+        arena.free(fresh);
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(0, arena.getLiveAllocationCount());
+    }
+}
@@ -0,0 +1,127 @@
+package com.hjortur.soundboard.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the stream copies of StreamUtilities
+ * @author Hjörtur Líndal Stefánsson
+ */
+public class StreamUtilitiesTest {
+    /**
+     * The size of the copied data, several buffers long
+     */
+    private static final int SIZE = 200 * 1024 + 123;
+
+    @After
+    public void tearDown() {
+        // Clears the flag, so it doesn't leak into the next test
+        Thread.interrupted();
+    }
+
+    @Test
+    public void copiesEverything() throws IOException {
+        byte[] data = createData();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(SIZE, StreamUtilities.copy(new ByteArrayInputStream(data), outputStream));
+        assertArrayEquals(data, outputStream.toByteArray());
+    }
+
+    @Test
+    public void copiesThroughLargeBuffer() throws IOException {
+        byte[] data = createData();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final long[] progress = new long[2];
+        long copied = StreamUtilities.copy(new ByteArrayInputStream(data), outputStream,
+                StreamUtilities.TRANSFER_BUFFER_SIZE, new StreamUtilities.ProgressListener() {
+                    @Override
+                    public void onProgress(long bytesCopied) {
+                        progress[0]++;
+                        progress[1] = bytesCopied;
+                    }
+                });
+        assertEquals(SIZE, copied);
+        assertArrayEquals(data, outputStream.toByteArray());
+        assertEquals(SIZE, progress[1]);
+        // One report per block of the large buffer
+        assertEquals((SIZE + StreamUtilities.TRANSFER_BUFFER_SIZE - 1) / StreamUtilities.TRANSFER_BUFFER_SIZE, progress[0]);
+    }
+
+    @Test
+    public void copyStopsWhenInterruptedWithoutListener() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Thread.currentThread().interrupt();
+        try {
+            StreamUtilities.copy(new ByteArrayInputStream(createData()), outputStream);
+            fail("The copy was not cancelled");
+        } catch (InterruptedIOException ex) {
+            assertTrue(outputStream.size() < SIZE);
+        }
+    }
+
+    @Test
+    public void transferCalculatesChecksum() throws IOException {
+        byte[] data = createData();
+        File source = File.createTempFile("source", ".bin");
+        File target = File.createTempFile("target", ".bin");
+        try {
+            FileOutputStream sourceStream = new FileOutputStream(source);
+            try {
+                // A header before the region, like the other files around a resource in the APK
+                sourceStream.write(new byte[100]);
+                sourceStream.write(data);
+            } finally {
+                sourceStream.close();
+            }
+            CRC32 crc = new CRC32();
+            FileInputStream inputStream = new FileInputStream(source);
+            FileOutputStream outputStream = new FileOutputStream(target);
+            try {
+                assertEquals(SIZE, StreamUtilities.transfer(inputStream.getChannel(), 100, SIZE,
+                        outputStream.getChannel(), crc, null));
+            } finally {
+                outputStream.close();
+                inputStream.close();
+            }
+            CRC32 expected = new CRC32();
+            expected.update(data, 0, data.length);
+            assertEquals(expected.getValue(), crc.getValue());
+            FileInputStream targetStream = new FileInputStream(target);
+            try {
+                ByteArrayOutputStream copy = new ByteArrayOutputStream();
+                StreamUtilities.copy(targetStream, copy);
+                assertArrayEquals(data, copy.toByteArray());
+            } finally {
+                targetStream.close();
+            }
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    /**
+     * Creates random data to copy
+     * @return The data
+     */
+    private static byte[] createData() {
+        byte[] data = new byte[SIZE];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+}